@@ -28,7 +28,9 @@
 
 package com.griefcraft.modules.admin;
 
+import com.griefcraft.cache.ChunkIndex;
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionFilter;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
@@ -70,7 +72,18 @@ public class AdminCache extends JavaModule {
             int size = cache.size();
             int capacity = cache.capacity();
 
-            sender.sendMessage(Colors.Green + size + Colors.Yellow + "/" + Colors.Green + capacity);
+            sender.sendMessage(Colors.Green + size + Colors.Yellow + "/" + Colors.Green + capacity + Colors.Yellow + " Policy: " + Colors.Green + cache.getPolicyName());
+            sender.sendMessage(Colors.Yellow + "Hits: " + Colors.Green + cache.getHits() + Colors.Yellow + " Reads: " + Colors.Green + cache.getReads());
+            sender.sendMessage(Colors.Yellow + "Null cache: " + Colors.Green + cache.nullSize() + Colors.Yellow + "/" + Colors.Green + capacity
+                    + Colors.Yellow + " Hits: " + Colors.Green + cache.getNullHits() + Colors.Yellow + " Misses: " + Colors.Green + cache.getNullMisses());
+
+            ChunkIndex chunkIndex = cache.getChunkIndex();
+            sender.sendMessage(Colors.Yellow + "Indexed chunks: " + Colors.Green + chunkIndex.size() + Colors.Yellow + " (" + Colors.Green + chunkIndex.getPendingCount() + Colors.Yellow + " loading)"
+                    + Colors.Yellow + " Protections: " + Colors.Green + chunkIndex.getProtectionCount());
+
+            ProtectionFilter filter = cache.getFilter();
+            sender.sendMessage(Colors.Yellow + "Filter: " + Colors.Green + (filter.isReady() ? filter.size() + Colors.Yellow + " blocks (~" + Colors.Green + (filter.getMemoryUsage() / 1024) + Colors.Yellow + " KB)" : "not ready")
+                    + Colors.Yellow + " Skipped lookups: " + Colors.Green + filter.getNegatives());
         }
     }
 
@@ -38,6 +38,7 @@ import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -137,6 +138,9 @@ public class AdminCleanup extends JavaModule {
             }
 
             statement.close();
+
+            // the removed protections are still cached and counted
+            lwc.reloadProtections();
         }
 
         public void run() {
@@ -148,9 +152,12 @@ public class AdminCleanup extends JavaModule {
             int totalProtections = lwc.getPhysicalDatabase().getProtectionCount();
 
             sender.sendMessage("Loading protections via STREAM mode");
+            Connection scanConnection = null;
 
             try {
-                Statement resultStatement = lwc.getPhysicalDatabase().getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                // streamed on a connection of its own, other threads can not use a connection while it streams
+                scanConnection = lwc.getPhysicalDatabase().openConnection();
+                Statement resultStatement = scanConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 
                 if (lwc.getPhysicalDatabase().getType() == Database.Type.MySQL) {
                     resultStatement.setFetchSize(Integer.MIN_VALUE);
@@ -201,6 +208,13 @@ public class AdminCleanup extends JavaModule {
                 sender.sendMessage("Uh-oh, something bad happened while cleaning up the LWC database!");
                 lwc.sendLocale(sender, "protection.internalerror", "id", "cleanup");
                 e.printStackTrace();
+            } finally {
+                if (scanConnection != null) {
+                    try {
+                        scanConnection.close();
+                    } catch (SQLException e) {
+                    }
+                }
             }
 
             long finish = System.currentTimeMillis();
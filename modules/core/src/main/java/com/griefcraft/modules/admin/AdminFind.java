@@ -32,9 +32,11 @@ import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
+import com.griefcraft.util.Callback;
 import org.bukkit.command.CommandSender;
 
 import java.util.List;
+import java.util.concurrent.Callable;
 
 public class AdminFind extends JavaModule {
 
@@ -48,8 +50,8 @@ public class AdminFind extends JavaModule {
             return;
         }
 
-        LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final LWC lwc = event.getLWC();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
 
         if (!args[0].equals("find")) {
@@ -66,7 +68,7 @@ public class AdminFind extends JavaModule {
 
         final int perPage = 7; // listings per page
 
-        String player = args[1];
+        final String player = args[1];
         int page = 1;
 
         if (args.length > 2) {
@@ -78,24 +80,53 @@ public class AdminFind extends JavaModule {
             }
         }
 
-        int start = (page - 1) * perPage;
+        final int currentPage = page;
+        final int start = (page - 1) * perPage;
 
-        List<Protection> protections = lwc.getPhysicalDatabase().loadProtectionsByPlayer(player, start, perPage);
-        int results = lwc.getPhysicalDatabase().getProtectionCount(player);
-        int max = protections.size(); // may not be the full perPage
-        int ceil = start + max;
+        lwc.getDatabaseExecutor().submit(new Callable<Results>() {
+            public Results call() {
+                Results results = new Results();
+                results.protections = lwc.getPhysicalDatabase().loadProtectionsByPlayer(player, start, perPage);
+                results.count = lwc.getPhysicalDatabase().getProtectionCount(player);
+                return results;
+            }
+        }, new Callback<Results>() {
+            public void call(Results found) {
+                List<Protection> protections = found.protections;
+                int results = found.count;
+                int max = protections.size(); // may not be the full perPage
+                int ceil = start + max;
 
-        lwc.sendLocale(sender, "protection.find.currentpage", "page", page);
+                lwc.sendLocale(sender, "protection.find.currentpage", "page", currentPage);
 
-        if (results != max) {
-            lwc.sendLocale(sender, "protection.find.nextpage", "player", player, "page", page + 1);
-        }
+                if (results != max) {
+                    lwc.sendLocale(sender, "protection.find.nextpage", "player", player, "page", currentPage + 1);
+                }
 
-        lwc.sendLocale(sender, "protection.find.showing", "start", start, "ceil", ceil, "results", results);
+                lwc.sendLocale(sender, "protection.find.showing", "start", start, "ceil", ceil, "results", results);
+
+                for (Protection protection : protections) {
+                    sender.sendMessage(protection.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * A page of protections loaded off the main thread
+     */
+    private static class Results {
+
+        /**
+         * The protections on the page
+         */
+        private List<Protection> protections;
+
+        /**
+         * The total amount of protections the player has
+         */
+        private int count;
 
-        for (Protection protection : protections) {
-            sender.sendMessage(protection.toString());
-        }
     }
 
 }
\ No newline at end of file
@@ -57,7 +57,7 @@ public class EasyNotifyModule extends JavaModule {
         LWC lwc = event.getLWC();
 
         // Redstone
-        if (isBlockAffectedByRedstone(block) && !Boolean.parseBoolean(lwc.resolveProtectionConfiguration(block.getType(), "denyRedstone"))) {
+        if (isBlockAffectedByRedstone(block) && !lwc.getProtectionConfiguration(block.getType()).denyRedstone()) {
             lwc.sendLocale(player, "lwc.easynotify.redstone");
         }
     }
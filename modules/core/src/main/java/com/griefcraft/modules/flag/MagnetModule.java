@@ -32,6 +32,7 @@ import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Flag;
 import com.griefcraft.model.Protection;
 import com.griefcraft.scripting.JavaModule;
+import com.griefcraft.util.Callback;
 import com.griefcraft.util.config.Configuration;
 import com.narrowtux.showcase.Showcase;
 import de.moritzschmale.Showcase.ShowcaseMain;
@@ -47,10 +48,13 @@ import org.bukkit.entity.Item;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class MagnetModule extends JavaModule {
 
@@ -81,6 +85,11 @@ public class MagnetModule extends JavaModule {
      */
     private final Queue<Item> items = new LinkedList<Item>();
 
+    /**
+     * The lookups for the magnets around items that are still running
+     */
+    private final List<Future<List<Protection>>> lookups = new ArrayList<Future<List<Protection>>>();
+
     // does all of the work
     // searches the worlds for items and magnet chests nearby
     private class MagnetTask implements Runnable {
@@ -88,6 +97,19 @@ public class MagnetModule extends JavaModule {
             Server server = Bukkit.getServer();
             LWC lwc = LWC.getInstance();
 
+            // wait for the last sweep to finish
+            Iterator<Future<List<Protection>>> iter = lookups.iterator();
+
+            while (iter.hasNext()) {
+                if (iter.next().isDone()) {
+                    iter.remove();
+                }
+            }
+
+            if (!lookups.isEmpty()) {
+                return;
+            }
+
             // Do we need to requeue?
             if (items.size() == 0) {
                 for (World world : server.getWorlds()) {
@@ -114,66 +136,95 @@ public class MagnetModule extends JavaModule {
 
             while ((item = items.poll()) != null) {
                 World world = item.getWorld();
-                ItemStack itemStack = item.getItemStack();
-
                 Location location = item.getLocation();
-                int x = location.getBlockX();
-                int y = location.getBlockY();
-                int z = location.getBlockZ();
 
                 if (isShowcaseItem(item)) {
                     // it's being used by the Showcase plugin ... ignore it
                     continue;
                 }
 
-                List<Protection> protections = lwc.getPhysicalDatabase().loadProtections(world.getName(), x, y, z, radius);
-                Block block;
-                Protection protection;
-
-                for (Protection temp : protections) {
-                    protection = temp;
-                    block = world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
+                // look for the magnets on the database thread and suck the item up once they're found
+                final Item found = item;
+                final String worldName = world.getName();
+                final int x = location.getBlockX();
+                final int y = location.getBlockY();
+                final int z = location.getBlockZ();
 
-                    // we only want inventory blocks
-                    if (!(block.getState() instanceof ContainerBlock)) {
-                        continue;
+                lookups.add(lwc.getDatabaseExecutor().submit(new Callable<List<Protection>>() {
+                    public List<Protection> call() {
+                        return LWC.getInstance().getPhysicalDatabase().loadProtections(worldName, x, y, z, radius);
                     }
-
-                    if (!protection.hasFlag(Flag.Type.MAGNET)) {
-                        continue;
+                }, new Callback<List<Protection>>() {
+                    public void call(List<Protection> protections) {
+                        suckItem(found, protections);
                     }
+                }));
 
-                    // Remove the items and suck them up :3
-                    Map<Integer, ItemStack> remaining = lwc.depositItems(block, itemStack);
+                // Time to throttle?
+                if (count > perSweep) {
+                    break;
+                }
 
-                    if (remaining.size() == 1) {
-                        ItemStack other = remaining.values().iterator().next();
+                count++;
+            }
+        }
+    }
 
-                        if (itemStack.getTypeId() == other.getTypeId() && itemStack.getAmount() == other.getAmount()) {
-                            continue;
-                        }
-                    }
+    /**
+     * Deposit an item into the first magnet that can hold it
+     *
+     * @param item
+     * @param protections the protections around the item
+     */
+    private void suckItem(Item item, List<Protection> protections) {
+        LWC lwc = LWC.getInstance();
 
-                    // remove the item on the ground
-                    item.remove();
+        // picked up or sucked up while we were looking
+        if (item.isDead()) {
+            return;
+        }
 
-                    // if we have a remainder, we need to drop them
-                    if (remaining.size() > 0) {
-                        for (ItemStack stack : remaining.values()) {
-                            world.dropItemNaturally(location, stack);
-                        }
-                    }
+        World world = item.getWorld();
+        ItemStack itemStack = item.getItemStack();
+        Location location = item.getLocation();
+        Block block;
+        Protection protection;
 
-                    break;
-                }
+        for (Protection temp : protections) {
+            protection = temp;
+            block = world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
 
-                // Time to throttle?
-                if (count > perSweep) {
-                    break;
+            // we only want inventory blocks
+            if (!(block.getState() instanceof ContainerBlock)) {
+                continue;
+            }
+
+            if (!protection.hasFlag(Flag.Type.MAGNET)) {
+                continue;
+            }
+
+            // Remove the items and suck them up :3
+            Map<Integer, ItemStack> remaining = lwc.depositItems(block, itemStack);
+
+            if (remaining.size() == 1) {
+                ItemStack other = remaining.values().iterator().next();
+
+                if (itemStack.getTypeId() == other.getTypeId() && itemStack.getAmount() == other.getAmount()) {
+                    continue;
                 }
+            }
 
-                count++;
+            // remove the item on the ground
+            item.remove();
+
+            // if we have a remainder, we need to drop them
+            if (remaining.size() > 0) {
+                for (ItemStack stack : remaining.values()) {
+                    world.dropItemNaturally(location, stack);
+                }
             }
+
+            break;
         }
     }
 
@@ -39,10 +39,14 @@ import com.griefcraft.scripting.event.LWCBlockInteractEvent;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.scripting.event.LWCProtectionDestroyEvent;
 import com.griefcraft.scripting.event.LWCProtectionInteractEvent;
+import com.griefcraft.util.Callback;
 import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 public class FreeModule extends JavaModule {
 
     @Override
@@ -154,14 +158,24 @@ public class FreeModule extends JavaModule {
             // our callback (remove all of their protections :p)
             Runnable callback = new Runnable() {
                 public void run() {
-                    // Get all of the player's protections
-                    for (Protection protection : lwc.getPhysicalDatabase().loadProtectionsByPlayer(player.getName())) {
-                        // Remove the protection
-                        protection.remove();
-                    }
+                    final String playerName = player.getName();
 
-                    // Notify them
-                    lwc.sendLocale(player, "lwc.remove.allprotections.success");
+                    // Get all of the player's protections
+                    lwc.getDatabaseExecutor().submit(new Callable<List<Protection>>() {
+                        public List<Protection> call() {
+                            return lwc.getPhysicalDatabase().loadProtectionsByPlayer(playerName);
+                        }
+                    }, new Callback<List<Protection>>() {
+                        public void call(List<Protection> protections) {
+                            for (Protection protection : protections) {
+                                // Remove the protection
+                                protection.remove();
+                            }
+
+                            // Notify them
+                            lwc.sendLocale(player, "lwc.remove.allprotections.success");
+                        }
+                    });
                 }
             };
 
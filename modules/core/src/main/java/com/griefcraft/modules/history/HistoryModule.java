@@ -35,6 +35,7 @@ import com.griefcraft.model.Protection;
 import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.scripting.event.LWCProtectionInteractEvent;
+import com.griefcraft.util.Callback;
 import com.griefcraft.util.Colors;
 import com.griefcraft.util.TimeUtil;
 import org.bukkit.command.CommandSender;
@@ -43,6 +44,7 @@ import org.bukkit.event.player.PlayerInteractEvent;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 public class HistoryModule extends JavaModule {
 
@@ -170,8 +172,8 @@ public class HistoryModule extends JavaModule {
      * @param event
      */
     private void doDetailsCommand(LWCCommandEvent event) {
-        LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final LWC lwc = event.getLWC();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
         event.setCancelled(true);
 
@@ -191,28 +193,36 @@ public class HistoryModule extends JavaModule {
             return;
         }
 
-        // Try and load the history object
-        History history = lwc.getPhysicalDatabase().loadHistory(historyId);
-
-        if (history == null) {
-            lwc.sendLocale(sender, "lwc.noresults");
-            return;
-        }
+        final int lookupId = historyId;
 
-        // Can they access it?
-        if (!lwc.isAdmin(sender)) {
-            if (sender instanceof Player) {
-                // verify they actually OWN the history object
-                if (!history.getPlayer().equalsIgnoreCase(((Player) sender).getName())) {
-                    // Make them think no results were found
+        // Try and load the history object
+        lwc.getDatabaseExecutor().submit(new Callable<History>() {
+            public History call() {
+                return lwc.getPhysicalDatabase().loadHistory(lookupId);
+            }
+        }, new Callback<History>() {
+            public void call(History history) {
+                if (history == null) {
                     lwc.sendLocale(sender, "lwc.noresults");
                     return;
                 }
-            }
-        }
 
-        // Tell them about it!
-        sendDetails(sender, history);
+                // Can they access it?
+                if (!lwc.isAdmin(sender)) {
+                    if (sender instanceof Player) {
+                        // verify they actually OWN the history object
+                        if (!history.getPlayer().equalsIgnoreCase(((Player) sender).getName())) {
+                            // Make them think no results were found
+                            lwc.sendLocale(sender, "lwc.noresults");
+                            return;
+                        }
+                    }
+                }
+
+                // Tell them about it!
+                sendDetails(sender, history);
+            }
+        });
     }
 
     /**
@@ -221,16 +231,14 @@ public class HistoryModule extends JavaModule {
      * @param event
      */
     private void doHistoryCommand(LWCCommandEvent event) {
-        LWC lwc = event.getLWC();
-        CommandSender sender = event.getSender();
+        final LWC lwc = event.getLWC();
+        final CommandSender sender = event.getSender();
         String[] args = event.getArgs();
         event.setCancelled(true);
 
         // Some vars we'll use more later on
         boolean isWildcard = false;
         int page = 1;
-        int historyCount = 0;
-        int pageCount = 0;
 
         // If it's the console without arguments, lookup for every player
         if (!(sender instanceof Player) && args.length == 0) {
@@ -290,41 +298,57 @@ public class HistoryModule extends JavaModule {
             }
         }
 
-        // Get the first page
-        List<History> relatedHistory;
+        final boolean wildcard = isWildcard;
+        final String lookupName = playerName;
+        final int currentPage = page;
 
-        if (isWildcard) {
-            relatedHistory = lwc.getPhysicalDatabase().loadHistory((page - 1) * ITEMS_PER_PAGE, ITEMS_PER_PAGE);
-            historyCount = lwc.getPhysicalDatabase().getHistoryCount();
-        } else {
-            relatedHistory = lwc.getPhysicalDatabase().loadHistory(playerName, (page - 1) * ITEMS_PER_PAGE, ITEMS_PER_PAGE);
-            historyCount = lwc.getPhysicalDatabase().getHistoryCount(playerName);
-        }
-
-        // Calculate page count
-        if (historyCount > 0) {
-            pageCount = (int) Math.floor(historyCount / (page * ITEMS_PER_PAGE));
+        // Get the first page
+        lwc.getDatabaseExecutor().submit(new Callable<HistoryPage>() {
+            public HistoryPage call() {
+                HistoryPage result = new HistoryPage();
+
+                if (wildcard) {
+                    result.history = lwc.getPhysicalDatabase().loadHistory((currentPage - 1) * ITEMS_PER_PAGE, ITEMS_PER_PAGE);
+                    result.count = lwc.getPhysicalDatabase().getHistoryCount();
+                } else {
+                    result.history = lwc.getPhysicalDatabase().loadHistory(lookupName, (currentPage - 1) * ITEMS_PER_PAGE, ITEMS_PER_PAGE);
+                    result.count = lwc.getPhysicalDatabase().getHistoryCount(lookupName);
+                }
 
-            // compensate for what's left
-            while ((pageCount * ITEMS_PER_PAGE) < historyCount) {
-                pageCount++;
+                return result;
             }
-        }
+        }, new Callback<HistoryPage>() {
+            public void call(HistoryPage result) {
+                List<History> relatedHistory = result.history;
+                int historyCount = result.count;
+                int pageCount = 0;
+
+                // Calculate page count
+                if (historyCount > 0) {
+                    pageCount = (int) Math.floor(historyCount / (currentPage * ITEMS_PER_PAGE));
+
+                    // compensate for what's left
+                    while ((pageCount * ITEMS_PER_PAGE) < historyCount) {
+                        pageCount++;
+                    }
+                }
 
-        // Were there any usable results?
-        if (relatedHistory.size() == 0) {
-            lwc.sendLocale(sender, "lwc.noresults");
-            return;
-        }
+                // Were there any usable results?
+                if (relatedHistory.size() == 0) {
+                    lwc.sendLocale(sender, "lwc.noresults");
+                    return;
+                }
 
-        // Is it a valid page? (this normally will NOT happen, with the previous statement in place!)
-        if (page > pageCount) {
-            lwc.sendLocale(sender, "lwc.noresults");
-            return;
-        }
+                // Is it a valid page? (this normally will NOT happen, with the previous statement in place!)
+                if (currentPage > pageCount) {
+                    lwc.sendLocale(sender, "lwc.noresults");
+                    return;
+                }
 
-        // Send it to them
-        sendHistoryList(sender, relatedHistory, page, pageCount, historyCount);
+                // Send it to them
+                sendHistoryList(sender, relatedHistory, currentPage, pageCount, historyCount);
+            }
+        });
     }
 
     @Override
@@ -340,4 +364,21 @@ public class HistoryModule extends JavaModule {
         }
     }
 
+    /**
+     * A page of history loaded off the main thread
+     */
+    private static class HistoryPage {
+
+        /**
+         * The history on the page
+         */
+        private List<History> history;
+
+        /**
+         * The total amount of history matching the lookup
+         */
+        private int count;
+
+    }
+
 }
@@ -38,6 +38,7 @@ import com.griefcraft.scripting.event.LWCBlockInteractEvent;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.scripting.event.LWCDropItemEvent;
 import com.griefcraft.scripting.event.LWCProtectionInteractEvent;
+import com.griefcraft.util.Callback;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
@@ -94,11 +95,10 @@ public class DropTransferModule extends JavaModule {
     @Override
     @SuppressWarnings("deprecation")
     public void onDropItem(LWCDropItemEvent event) {
-        Player bPlayer = event.getPlayer();
-        Item item = event.getEvent().getItemDrop();
-        ItemStack itemStack = item.getItemStack();
+        final Player bPlayer = event.getPlayer();
+        final Item item = event.getEvent().getItemDrop();
 
-        LWCPlayer player = lwc.wrapPlayer(bPlayer);
+        final LWCPlayer player = lwc.wrapPlayer(bPlayer);
         int protectionId = getPlayerDropTransferTarget(player);
 
         if (protectionId == -1) {
@@ -109,43 +109,50 @@ public class DropTransferModule extends JavaModule {
             return;
         }
 
-        Protection protection = lwc.getPhysicalDatabase().loadProtection(protectionId);
+        lwc.loadProtectionAsync(protectionId, new Callback<Protection>() {
+            public void call(Protection protection) {
+                // the item may have been picked up while the protection was loading
+                if (item.isDead()) {
+                    return;
+                }
 
-        if (protection == null) {
-            lwc.sendLocale(player, "lwc.nolongerexists");
-            player.disableMode(player.getMode("dropTransfer"));
-            return;
-        }
+                if (protection == null) {
+                    lwc.sendLocale(player, "lwc.nolongerexists");
+                    player.disableMode(player.getMode("dropTransfer"));
+                    return;
+                }
 
-        // load the world and the inventory
-        World world = player.getServer().getWorld(protection.getWorld());
+                // load the world and the inventory
+                World world = player.getServer().getWorld(protection.getWorld());
 
-        if (world == null) {
-            lwc.sendLocale(player, "lwc.invalidworld");
-            player.disableMode(player.getMode("dropTransfer"));
-            return;
-        }
+                if (world == null) {
+                    lwc.sendLocale(player, "lwc.invalidworld");
+                    player.disableMode(player.getMode("dropTransfer"));
+                    return;
+                }
 
-        // Don't allow them to transfer items across worlds
-        if (bPlayer.getWorld() != world) {
-            lwc.sendLocale(player, "lwc.dropxfer.acrossworlds");
-            player.disableMode(player.getMode("dropTransfer"));
-            return;
-        }
+                // Don't allow them to transfer items across worlds
+                if (bPlayer.getWorld() != world) {
+                    lwc.sendLocale(player, "lwc.dropxfer.acrossworlds");
+                    player.disableMode(player.getMode("dropTransfer"));
+                    return;
+                }
 
-        Block block = world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
-        Map<Integer, ItemStack> remaining = lwc.depositItems(block, itemStack);
+                Block block = world.getBlockAt(protection.getX(), protection.getY(), protection.getZ());
+                Map<Integer, ItemStack> remaining = lwc.depositItems(block, item.getItemStack());
 
-        if (remaining.size() > 0) {
-            lwc.sendLocale(player, "lwc.dropxfer.chestfull");
+                if (remaining.size() > 0) {
+                    lwc.sendLocale(player, "lwc.dropxfer.chestfull");
 
-            for (ItemStack temp : remaining.values()) {
-                bPlayer.getInventory().addItem(temp);
-            }
-        }
+                    for (ItemStack temp : remaining.values()) {
+                        bPlayer.getInventory().addItem(temp);
+                    }
+                }
 
-        bPlayer.updateInventory(); // if they're in the chest and dropping items, this is required
-        item.remove();
+                bPlayer.updateInventory(); // if they're in the chest and dropping items, this is required
+                item.remove();
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import java.util.List;
+
+/**
+ * Decides which entries a bounded cache keeps once it is full. Implementations are not thread safe, the cache using
+ * them must synchronize access to them.
+ */
+public interface CachePolicy<K> {
+
+    /**
+     * @return the name of the policy as used in the config
+     */
+    public String getName();
+
+    /**
+     * Record a lookup of a key. Keys that are not in the cache can still be used to learn how popular a key is.
+     *
+     * @param key
+     */
+    public void access(K key);
+
+    /**
+     * Add a key to the cache
+     *
+     * @param key
+     * @return the key that was evicted to make room for it, which may be the key itself if it was not admitted, or
+     *         null if nothing was evicted
+     */
+    public K add(K key);
+
+    /**
+     * Remove a key from the cache
+     *
+     * @param key
+     */
+    public void remove(K key);
+
+    /**
+     * @return the amount of keys in the cache
+     */
+    public int size();
+
+    /**
+     * @return every key in the cache, the keys most worth keeping first
+     */
+    public List<K> keys();
+
+    /**
+     * Remove every key from the cache
+     */
+    public void clear();
+
+}
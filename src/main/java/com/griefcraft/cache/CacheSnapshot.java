@@ -0,0 +1,222 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.scripting.ModuleLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which protections were the most used when the server stopped, so the cache can be warmed with exactly
+ * those protections when it starts again. The snapshot is a small binary file with the ids of the protections:
+ * <p/>
+ * int magic, int version, int count, count * int id
+ */
+public class CacheSnapshot implements Runnable {
+
+    /**
+     * The file the snapshot is stored in
+     */
+    public final static String SNAPSHOT_FILE = ModuleLoader.ROOT_PATH + "cache.dat";
+
+    /**
+     * Identifies the file as a snapshot
+     */
+    private final static int MAGIC = 0x4C574348;
+
+    /**
+     * The version of the file format
+     */
+    private final static int VERSION = 1;
+
+    /**
+     * The amount of protections to load with each query
+     */
+    private final static int BATCH_SIZE = 500;
+
+    /**
+     * Logging instance
+     */
+    private Logger logger = Logger.getLogger("Cache");
+
+    /**
+     * The LWC instance this snapshot belongs to
+     */
+    private final LWC lwc;
+
+    /**
+     * The ids to load into the cache
+     */
+    private List<Integer> ids;
+
+    public CacheSnapshot(LWC lwc) {
+        this.lwc = lwc;
+    }
+
+    /**
+     * Save the ids of the protections most worth keeping in the cache
+     */
+    public void save() {
+        ProtectionCache cache = lwc.getProtectionCache();
+
+        if (cache.isResident()) {
+            return;
+        }
+
+        List<Protection> protections = cache.getHottest(cache.capacity());
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(SNAPSHOT_FILE)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(protections.size());
+
+            for (Protection protection : protections) {
+                out.writeInt(protection.getId());
+            }
+
+            logger.info("LWC: Saved " + protections.size() + " cached protections");
+        } catch (IOException e) {
+            logger.warning("LWC: Failed to save the cache snapshot: " + e.getMessage());
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Start loading the protections in the snapshot into the cache in the background
+     *
+     * @return false if there is no usable snapshot, in which case nothing is loaded
+     */
+    public boolean preload() {
+        if (lwc.getProtectionCache().isResident()) {
+            return false;
+        }
+
+        ids = read();
+
+        if (ids == null || ids.isEmpty()) {
+            return false;
+        }
+
+        Thread thread = new Thread(this, "LWC Cache Warmup");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Load the protections in the snapshot into the cache
+     */
+    public void run() {
+        ProtectionCache cache = lwc.getProtectionCache();
+        long start = System.currentTimeMillis();
+        int loaded = 0;
+
+        // the first ids are the most worth keeping, so add those last so that they are the most recent
+        for (int end = ids.size(); end > 0; end -= BATCH_SIZE) {
+            List<Protection> protections = lwc.getPhysicalDatabase().loadProtectionsById(ids.subList(Math.max(0, end - BATCH_SIZE), end));
+
+            for (Protection protection : protections) {
+                if (cache.addIfAbsent(protection)) {
+                    loaded++;
+                }
+            }
+        }
+
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        logger.info("LWC: Warmed the cache with " + loaded + "/" + ids.size() + " protections in " + time + "ms (" + (loaded * 1000L / time) + " rows/s)");
+    }
+
+    /**
+     * Read the ids in the snapshot
+     *
+     * @return the ids, or null if there is no usable snapshot
+     */
+    private List<Integer> read() {
+        File file = new File(SNAPSHOT_FILE);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            int count = Math.min(in.readInt(), lwc.getProtectionCache().capacity());
+
+            if (count < 0) {
+                return null;
+            }
+
+            List<Integer> result = new ArrayList<Integer>(count);
+
+            for (int i = 0; i < count; i++) {
+                result.add(in.readInt());
+            }
+
+            return result;
+        } catch (IOException e) {
+            logger.warning("LWC: Failed to read the cache snapshot: " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+}
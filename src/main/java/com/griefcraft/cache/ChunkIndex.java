@@ -0,0 +1,662 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * Holds every protection inside of the loaded chunks. Chunks are loaded with one range query on a background
+ * thread when Bukkit loads them, and are dropped when Bukkit unloads them. A block inside of an indexed chunk that
+ * is not in the index is not protected, so the database does not need to be checked for it.
+ * <p/>
+ * The index is guarded by a read/write lock, so it can be read from any thread without the readers waiting on each
+ * other. Chunks are loaded into it on the main thread.
+ */
+public class ChunkIndex implements Runnable {
+
+    /**
+     * Logging instance
+     */
+    private Logger logger = Logger.getLogger("Cache");
+
+    /**
+     * The LWC instance this index belongs to
+     */
+    private final LWC lwc;
+
+    /**
+     * The cache this index belongs to
+     */
+    private final ProtectionCache cache;
+
+    /**
+     * Guards the indexed and pending chunks
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The indexed chunks for each world, keyed by chunkKey(). Each chunk maps the packed block coordinates
+     * (LongHashMap.pack()) to the protection on it
+     */
+    private final Map<String, LongHashMap<LongHashMap<Protection>>> chunks = new HashMap<String, LongHashMap<LongHashMap<Protection>>>();
+
+    /**
+     * Chunks waiting to be loaded from the database, keyed by chunkKey()
+     */
+    private final Map<String, LongHashMap<ChunkRequest>> pending = new HashMap<String, LongHashMap<ChunkRequest>>();
+
+    /**
+     * Requests for the database thread to load
+     */
+    private final BlockingQueue<ChunkRequest> loadQueue = new LinkedBlockingQueue<ChunkRequest>();
+
+    /**
+     * Requests that were loaded and are waiting to be published on the main thread
+     */
+    private final Queue<ChunkRequest> loadedQueue = new ConcurrentLinkedQueue<ChunkRequest>();
+
+    /**
+     * The thread the chunks are loaded in
+     */
+    private Thread thread;
+
+    /**
+     * If the loading thread is active and running
+     */
+    private volatile boolean running = false;
+
+    /**
+     * If chunks should be indexed
+     */
+    private final boolean enabled;
+
+    /**
+     * The amount of protections in the indexed chunks
+     */
+    private int protectionCount = 0;
+
+    public ChunkIndex(LWC lwc, ProtectionCache cache) {
+        this.lwc = lwc;
+        this.cache = cache;
+        this.enabled = lwc.getConfiguration().getBoolean("core.chunkIndex", true);
+    }
+
+    /**
+     * Get the key for a chunk
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Start loading chunks, including the chunks that are already loaded
+     */
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+
+        // a resident cache already has every protection
+        if (cache.isResident()) {
+            return;
+        }
+
+        running = true;
+        thread = new Thread(this, "LWC Chunk Index");
+        thread.setDaemon(true);
+        thread.start();
+
+        // publish the loaded chunks every tick
+        lwc.getPlugin().getServer().getScheduler().scheduleSyncRepeatingTask(lwc.getPlugin(), new Runnable() {
+            public void run() {
+                publish();
+            }
+        }, 1, 1);
+
+        indexLoadedChunks();
+    }
+
+    /**
+     * Stop loading chunks and drop the index
+     */
+    public void stop() {
+        lock.writeLock().lock();
+
+        try {
+            if (!running) {
+                return;
+            }
+
+            running = false;
+            thread.interrupt();
+            thread = null;
+
+            loadQueue.clear();
+            loadedQueue.clear();
+            pending.clear();
+            chunks.clear();
+            protectionCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the entire index and load the loaded chunks again
+     */
+    public void clear() {
+        lock.writeLock().lock();
+
+        try {
+            if (!running) {
+                return;
+            }
+
+            // anything still waiting to be loaded is stale now
+            for (ChunkRequest request : loadQueue) {
+                request.stale = true;
+            }
+
+            pending.clear();
+            chunks.clear();
+            protectionCount = 0;
+
+            indexLoadedChunks();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the amount of chunks that are indexed
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            int size = 0;
+
+            for (LongHashMap<LongHashMap<Protection>> worldChunks : chunks.values()) {
+                size += worldChunks.size();
+            }
+
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the amount of protections in the indexed chunks
+     */
+    public int getProtectionCount() {
+        return protectionCount;
+    }
+
+    /**
+     * @return the amount of chunks waiting to be loaded
+     */
+    public int getPendingCount() {
+        lock.readLock().lock();
+
+        try {
+            int size = 0;
+
+            for (LongHashMap<ChunkRequest> requests : pending.values()) {
+                size += requests.size();
+            }
+
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Check if the chunk a block is in is indexed
+     *
+     * @param world
+     * @param x
+     * @param z
+     * @return true if the index knows every protection in the block's chunk
+     */
+    public boolean isIndexed(String world, int x, int z) {
+        lock.readLock().lock();
+
+        try {
+            return getChunk(world, x, z) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the protection at a block
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return the protection, or null if the block is not protected or the chunk is not indexed
+     */
+    public Protection getProtection(String world, int x, int y, int z) {
+        lock.readLock().lock();
+
+        try {
+            LongHashMap<Protection> chunk = getChunk(world, x, z);
+
+            if (chunk == null) {
+                return null;
+            }
+
+            return chunk.get(LongHashMap.pack(x, y, z));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queue a chunk to be indexed
+     *
+     * @param chunk
+     */
+    public void load(Chunk chunk) {
+        load(chunk.getWorld().getName(), chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Queue a chunk to be indexed
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    public void load(String world, int chunkX, int chunkZ) {
+        lock.writeLock().lock();
+
+        try {
+            if (!running) {
+                return;
+            }
+
+            long key = chunkKey(chunkX, chunkZ);
+            LongHashMap<LongHashMap<Protection>> worldChunks = chunks.get(world);
+
+            if (worldChunks != null && worldChunks.containsKey(key)) {
+                return;
+            }
+
+            LongHashMap<ChunkRequest> requests = getPending(world, true);
+
+            if (requests.containsKey(key)) {
+                return;
+            }
+
+            ChunkRequest request = new ChunkRequest(world, chunkX, chunkZ);
+            requests.put(key, request);
+            loadQueue.offer(request);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop a chunk from the index
+     *
+     * @param chunk
+     */
+    public void unload(Chunk chunk) {
+        lock.writeLock().lock();
+
+        try {
+            String world = chunk.getWorld().getName();
+            long key = chunkKey(chunk.getX(), chunk.getZ());
+
+            LongHashMap<ChunkRequest> requests = getPending(world, false);
+
+            if (requests != null) {
+                ChunkRequest request = requests.remove(key);
+
+                if (request != null) {
+                    request.stale = true;
+                }
+            }
+
+            LongHashMap<LongHashMap<Protection>> worldChunks = chunks.get(world);
+
+            if (worldChunks != null) {
+                LongHashMap<Protection> removed = worldChunks.remove(key);
+
+                if (removed != null) {
+                    protectionCount -= removed.size();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop every chunk in a world from the index
+     *
+     * @param world
+     */
+    public void unloadWorld(String world) {
+        lock.writeLock().lock();
+
+        try {
+            if (pending.remove(world) != null) {
+                for (ChunkRequest request : loadQueue) {
+                    if (request.world.equals(world)) {
+                        request.stale = true;
+                    }
+                }
+            }
+
+            LongHashMap<LongHashMap<Protection>> worldChunks = chunks.remove(world);
+
+            if (worldChunks != null) {
+                for (LongHashMap<Protection> chunk : worldChunks.values()) {
+                    protectionCount -= chunk.size();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a protection to the index if its chunk is indexed
+     *
+     * @param protection
+     */
+    public void add(Protection protection) {
+        lock.writeLock().lock();
+
+        try {
+            invalidatePending(protection);
+            LongHashMap<Protection> chunk = getChunk(protection.getWorld(), protection.getX(), protection.getZ());
+
+            if (chunk != null && chunk.put(LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ()), protection) == null) {
+                protectionCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a protection from the index
+     *
+     * @param protection
+     */
+    public void remove(Protection protection) {
+        lock.writeLock().lock();
+
+        try {
+            invalidatePending(protection);
+            LongHashMap<Protection> chunk = getChunk(protection.getWorld(), protection.getX(), protection.getZ());
+
+            if (chunk == null) {
+                return;
+            }
+
+            long key = LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ());
+
+            if (protection.equals(chunk.get(key))) {
+                chunk.remove(key);
+                protectionCount--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Load chunks from the database until stopped
+     */
+    public void run() {
+        while (running) {
+            ChunkRequest request;
+
+            try {
+                request = loadQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            // the main thread decides if it should be loaded again
+            if (request.stale) {
+                loadedQueue.offer(request);
+                continue;
+            }
+
+            try {
+                request.protections = lwc.getPhysicalDatabase().loadProtectionsInChunk(request.world, request.chunkX, request.chunkZ);
+            } catch (Exception e) {
+                // leave the chunk unindexed, lookups will go to the database like normal
+                logger.warning("LWC: Failed to index chunk [" + request.world + " " + request.chunkX + "," + request.chunkZ + "]: " + e.getMessage());
+            }
+
+            loadedQueue.offer(request);
+        }
+    }
+
+    /**
+     * Move the chunks that finished loading into the index. Called on the main thread.
+     */
+    private void publish() {
+        lock.writeLock().lock();
+
+        try {
+            ChunkRequest request;
+
+            while ((request = loadedQueue.poll()) != null) {
+                LongHashMap<ChunkRequest> requests = getPending(request.world, false);
+
+                // unloaded or replaced while it was loading
+                if (requests == null || requests.get(request.key) != request) {
+                    continue;
+                }
+
+                requests.remove(request.key);
+
+                // a protection in the chunk was changed while it was loading, so try again
+                if (request.stale) {
+                    World world = lwc.getPlugin().getServer().getWorld(request.world);
+
+                    if (world != null && world.isChunkLoaded(request.chunkX, request.chunkZ)) {
+                        load(request.world, request.chunkX, request.chunkZ);
+                    }
+
+                    continue;
+                }
+
+                // failed to load, lookups in the chunk will go to the database like normal
+                if (request.protections == null) {
+                    continue;
+                }
+
+                LongHashMap<Protection> chunk = new LongHashMap<Protection>(request.protections.size());
+
+                for (Protection protection : request.protections) {
+                    // prefer the instance that is already in use as it may have changes that are not saved yet
+                    Protection cached = cache.getProtectionById(protection.getId());
+
+                    if (cached != null) {
+                        protection = cached;
+                    }
+
+                    chunk.put(LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ()), protection);
+                }
+
+                LongHashMap<LongHashMap<Protection>> worldChunks = chunks.get(request.world);
+
+                if (worldChunks == null) {
+                    worldChunks = new LongHashMap<LongHashMap<Protection>>();
+                    chunks.put(request.world, worldChunks);
+                }
+
+                worldChunks.put(request.key, chunk);
+                protectionCount += chunk.size();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Queue every chunk that is currently loaded
+     */
+    private void indexLoadedChunks() {
+        for (World world : lwc.getPlugin().getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                load(chunk);
+            }
+        }
+    }
+
+    /**
+     * Mark the pending load of a protection's chunk as stale
+     *
+     * @param protection
+     */
+    private void invalidatePending(Protection protection) {
+        LongHashMap<ChunkRequest> requests = getPending(protection.getWorld(), false);
+
+        if (requests == null) {
+            return;
+        }
+
+        ChunkRequest request = requests.get(chunkKey(protection.getX() >> 4, protection.getZ() >> 4));
+
+        if (request != null) {
+            request.stale = true;
+        }
+    }
+
+    /**
+     * Get the indexed chunk a block is in
+     *
+     * @param world
+     * @param x
+     * @param z
+     * @return the chunk's protections, or null if the chunk is not indexed
+     */
+    private LongHashMap<Protection> getChunk(String world, int x, int z) {
+        LongHashMap<LongHashMap<Protection>> worldChunks = chunks.get(world);
+
+        if (worldChunks == null) {
+            return null;
+        }
+
+        return worldChunks.get(chunkKey(x >> 4, z >> 4));
+    }
+
+    /**
+     * Get the pending requests for a world
+     *
+     * @param world
+     * @param create
+     * @return
+     */
+    private LongHashMap<ChunkRequest> getPending(String world, boolean create) {
+        LongHashMap<ChunkRequest> requests = pending.get(world);
+
+        if (requests == null && create) {
+            requests = new LongHashMap<ChunkRequest>();
+            pending.put(world, requests);
+        }
+
+        return requests;
+    }
+
+    /**
+     * A chunk waiting to be loaded
+     */
+    private final class ChunkRequest {
+
+        /**
+         * The world the chunk is in
+         */
+        private final String world;
+
+        /**
+         * The chunk's x coordinate
+         */
+        private final int chunkX;
+
+        /**
+         * The chunk's z coordinate
+         */
+        private final int chunkZ;
+
+        /**
+         * The key for the chunk
+         */
+        private final long key;
+
+        /**
+         * True if the chunk was unloaded or a protection in it was changed while it was loading
+         */
+        private volatile boolean stale = false;
+
+        /**
+         * The protections loaded from the database
+         */
+        private List<Protection> protections;
+
+        private ChunkRequest(String world, int chunkX, int chunkZ) {
+            this.world = world;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.key = chunkKey(chunkX, chunkZ);
+        }
+
+    }
+
+}
@@ -28,10 +28,23 @@
 
 package com.griefcraft.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * An access ordered cache that evicts its least recently used entry once it is full. Every method is synchronized,
+ * and keySet(), values() and entrySet() return read only copies so they can be iterated without holding the lock.
+ */
 public class LRUCache<K, V> extends LinkedHashMap<K, V> {
 
+    private static final long serialVersionUID = 1L;
+
     /**
      * The max number of entries allowed
      */
@@ -40,12 +53,12 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
     /**
      * Amount of reads performed on the cache
      */
-    private long reads = 0;
+    private final AtomicLong reads = new AtomicLong();
 
     /**
      * Amount of writes performed on the cache
      */
-    private long writes = 0;
+    private final AtomicLong writes = new AtomicLong();
 
     public LRUCache(int maxCapacity) {
         super(maxCapacity, 0.75f, true);
@@ -53,19 +66,80 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
     }
 
     @Override
-    public V get(Object key) {
-        reads++;
+    public synchronized V get(Object key) {
+        reads.incrementAndGet();
         return super.get(key);
     }
 
     @Override
-    public V put(K key, V value) {
-        writes++;
+    public synchronized V put(K key, V value) {
+        writes.incrementAndGet();
         return super.put(key, value);
     }
 
     @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest) {
+    public synchronized V remove(Object key) {
+        return super.remove(key);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return super.containsKey(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return super.size();
+    }
+
+    @Override
+    public synchronized void putAll(Map<? extends K, ? extends V> map) {
+        writes.addAndGet(map.size());
+        super.putAll(map);
+    }
+
+    @Override
+    public synchronized boolean containsValue(Object value) {
+        return super.containsValue(value);
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+    }
+
+    /**
+     * @return a read only copy of the keys, the least recently used first
+     */
+    @Override
+    public synchronized Set<K> keySet() {
+        return Collections.unmodifiableSet(new LinkedHashSet<K>(super.keySet()));
+    }
+
+    /**
+     * @return a read only copy of the values, the least recently used first
+     */
+    @Override
+    public synchronized Collection<V> values() {
+        return Collections.unmodifiableList(new ArrayList<V>(super.values()));
+    }
+
+    /**
+     * @return a read only copy of the entries, the least recently used first
+     */
+    @Override
+    public synchronized Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> entries = new LinkedHashSet<Map.Entry<K, V>>();
+
+        for (Map.Entry<K, V> entry : super.entrySet()) {
+            entries.add(new SimpleImmutableEntry<K, V>(entry.getKey(), entry.getValue()));
+        }
+
+        return Collections.unmodifiableSet(entries);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
         return size() > maxCapacity;
     }
 
@@ -73,14 +147,14 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
      * @return amount of reads on the cache
      */
     public long getReads() {
-        return reads;
+        return reads.get();
     }
 
     /**
      * @return amount of writes on the cache
      */
     public long getWrites() {
-        return writes;
+        return writes.get();
     }
 
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Evicts the least recently used key
+ */
+public class LRUPolicy<K> implements CachePolicy<K> {
+
+    /**
+     * The keys in the order they were last used in, the eldest first
+     */
+    private final LinkedHashMap<K, Boolean> keys;
+
+    /**
+     * The max number of keys allowed
+     */
+    private final int capacity;
+
+    public LRUPolicy(int capacity) {
+        this.capacity = capacity;
+        this.keys = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+    }
+
+    public String getName() {
+        return "lru";
+    }
+
+    public void access(K key) {
+        keys.get(key);
+    }
+
+    public K add(K key) {
+        if (keys.put(key, Boolean.TRUE) != null || keys.size() <= capacity) {
+            return null;
+        }
+
+        K eldest = keys.keySet().iterator().next();
+        keys.remove(eldest);
+        return eldest;
+    }
+
+    public void remove(K key) {
+        keys.remove(key);
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public List<K> keys() {
+        List<K> result = new ArrayList<K>(keys.keySet());
+
+        // most recently used first
+        Collections.reverse(result);
+        return result;
+    }
+
+    public void clear() {
+        keys.clear();
+    }
+
+}
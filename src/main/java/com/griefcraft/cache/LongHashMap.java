@@ -0,0 +1,308 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An open addressing hash map that uses primitive long keys, so lookups do not create any objects.
+ * Null values are not supported as they are used to mark empty slots.
+ */
+public class LongHashMap<V> {
+
+    /**
+     * The max fill of the table before it is grown
+     */
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /**
+     * The keys in the table
+     */
+    private long[] keys;
+
+    /**
+     * The values in the table. A null value is an empty slot
+     */
+    private Object[] values;
+
+    /**
+     * The amount of entries in the table
+     */
+    private int size = 0;
+
+    /**
+     * The amount of entries that can be stored before the table is grown
+     */
+    private int threshold;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    public LongHashMap(int initialCapacity) {
+        int capacity = 2;
+
+        while (capacity * LOAD_FACTOR < initialCapacity) {
+            capacity <<= 1;
+        }
+
+        allocate(capacity);
+    }
+
+    /**
+     * Pack block coordinates into one long. x and z use 26 bits each and y uses 12 bits, which covers
+     * every coordinate a world can have.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (long) (y & 0xFFF);
+    }
+
+    /**
+     * @return the amount of entries in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the map has no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the value for a key
+     *
+     * @param key
+     * @return the value, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = values.length - 1;
+        int index = hash(key) & mask;
+        Object value;
+
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (V) value;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check if the map contains a key
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Put a value into the map
+     *
+     * @param key
+     * @param value
+     * @return the previous value for the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("LongHashMap does not support null values");
+        }
+
+        int mask = values.length - 1;
+        int index = hash(key) & mask;
+        Object existing;
+
+        while ((existing = values[index]) != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return (V) existing;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > threshold) {
+            resize(values.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove a key from the map
+     *
+     * @param key
+     * @return the value that was removed, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int mask = values.length - 1;
+        int index = hash(key) & mask;
+        Object value;
+
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                shiftBack(index);
+                size--;
+                return (V) value;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Copy the values in the map into a new list
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> list = new ArrayList<V>(size);
+
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Remove every entry in the map
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Close the gap left by a removed entry so that probing still finds the entries after it
+     *
+     * @param gap
+     */
+    private void shiftBack(int gap) {
+        int mask = values.length - 1;
+        int index = gap;
+
+        while (true) {
+            index = (index + 1) & mask;
+
+            if (values[index] == null) {
+                break;
+            }
+
+            int home = hash(keys[index]) & mask;
+
+            // only move the entry if its home slot is not between the gap and where it currently is
+            if (gap <= index ? (gap < home && home <= index) : (gap < home || home <= index)) {
+                continue;
+            }
+
+            keys[gap] = keys[index];
+            values[gap] = values[index];
+            gap = index;
+        }
+
+        values[gap] = null;
+    }
+
+    /**
+     * Grow the table, rehashing every entry
+     *
+     * @param capacity
+     */
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+        int mask = capacity - 1;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+
+            int index = hash(oldKeys[i]) & mask;
+
+            while (values[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    /**
+     * Allocate empty tables
+     *
+     * @param capacity must be a power of two
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Spread the bits of a key so that packed coordinates do not cluster
+     *
+     * @param key
+     * @return
+     */
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+}
@@ -25,17 +25,41 @@
  * authors and contributors and should not be interpreted as representing official policies,
  * either expressed or implied, of anybody else.
  */
-
 package com.griefcraft.cache;
 
 
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
+/**
+ * Caches protections by their coordinates and id, and can be shared between the main thread and other threads.
+ * <p/>
+ * The coordinate index and the null cache are split into segments by chunk, and each segment has its own lock, so
+ * lookups of blocks in different chunks do not wait on each other. The eviction policy has a lock of its own; a
+ * lookup that finds it busy does not wait for it and simply does not count as a use of the protection. The ChunkIndex
+ * and the id index guard themselves, and none of these locks is held while calling into the ChunkIndex or taking
+ * another one of them.
+ */
 public class ProtectionCache {
 
+    /**
+     * Value stored in the coordinate index for coordinates that are known to not have a protection on them
+     */
+    private static final Object NULL_PROTECTION = new Object();
+
+    /**
+     * The amount of segments the coordinate index and the null cache are split into. Must be a power of two.
+     */
+    private static final int SEGMENTS = 16;
+
     /**
      * Logging instance
      */
@@ -47,33 +71,110 @@ public class ProtectionCache {
     private final LWC lwc;
 
     /**
-     * Hard references to protections still cached 
+     * Hard references to protections still cached, the policy decides which are evicted. Guarded by policyLock.
+     */
+    private final CachePolicy<Protection> references;
+
+    /**
+     * Guards the policy and the resident id index
      */
-    private final LRUCache<Protection, Object> references;
+    private final ReentrantLock policyLock = new ReentrantLock();
 
     /**
-     * Weak references to protections and their cache key (protection.getCacheKey())
+     * The coordinate index and the null cache, split by chunk
      */
-    private final WeakLRUCache<String, Protection> byCacheKey;
+    private final Segment[] segments = new Segment[SEGMENTS];
 
     /**
      * Weak references to protections and their protection id
      */
     private final WeakLRUCache<Integer, Protection> byId;
 
+    /**
+     * Every protection by its id when the cache is resident (storageMode: memory), otherwise null. Guarded by
+     * policyLock.
+     */
+    private final LongHashMap<Protection> residentById;
+
+    /**
+     * Every protection in the loaded chunks
+     */
+    private final ChunkIndex chunkIndex;
+
+    /**
+     * The filter of the blocks that may be protected
+     */
+    private final ProtectionFilter filter;
+
+    /**
+     * Amount of lookups answered by the null cache
+     */
+    private final AtomicLong nullHits = new AtomicLong();
+
+    /**
+     * Amount of lookups that were not in the null cache and had to go to the database
+     */
+    private final AtomicLong nullMisses = new AtomicLong();
+
+    /**
+     * Amount of lookups that found a cached protection
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Amount of reads performed on the coordinate index
+     */
+    private final AtomicLong reads = new AtomicLong();
+
+    /**
+     * Amount of writes performed on the coordinate index
+     */
+    private final AtomicLong writes = new AtomicLong();
+
     /**
      * The capacity of the cache
      */
     private int capacity;
 
+    /**
+     * If every protection is kept in memory and the database is only written to
+     */
+    private final boolean resident;
+
+    /**
+     * The measured heap usage per protection after the resident cache was loaded
+     */
+    private volatile long bytesPerProtection = 0;
+
     public ProtectionCache(LWC lwc) {
         this.lwc = lwc;
         this.capacity = lwc.getConfiguration().getInt("core.cacheSize", 10000);
+        this.resident = lwc.getConfiguration().getString("core.storageMode", "cache").equalsIgnoreCase("memory");
+        this.residentById = resident ? new LongHashMap<Protection>() : null;
 
-        this.references = new LRUCache<Protection, Object>(capacity);
-        this.byCacheKey = new WeakLRUCache<String, Protection>(capacity);
+        String policy = lwc.getConfiguration().getString("core.cachePolicy", "lru");
+
+        if (policy.equalsIgnoreCase("tinylfu")) {
+            this.references = new TinyLFUPolicy<Protection>(capacity);
+        } else {
+            this.references = new LRUPolicy<Protection>(capacity);
+        }
         this.byId = new WeakLRUCache<Integer, Protection>(capacity);
-        logger.info("LWC: Protection cache: 0/" + capacity);
+        this.chunkIndex = new ChunkIndex(lwc, this);
+        this.filter = new ProtectionFilter(lwc);
+
+        // a cache without room for protections does not remember empty coordinates either
+        int nullCapacity = capacity <= 0 ? 0 : (capacity + SEGMENTS - 1) / SEGMENTS;
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(nullCapacity);
+        }
+
+        if (resident) {
+            logger.info("LWC: Protection cache: resident (storageMode: memory)");
+        } else {
+            logger.info("LWC: Protection cache: 0/" + capacity + " (" + references.getName() + ")");
+        }
     }
 
     /**
@@ -82,7 +183,7 @@ public class ProtectionCache {
      * @return
      */
     public long getReads() {
-        return byCacheKey.getReads() + byId.getReads();
+        return reads.get() + byId.getReads();
     }
 
     /**
@@ -91,7 +192,105 @@ public class ProtectionCache {
      * @return
      */
     public long getWrites() {
-        return byCacheKey.getWrites() + byId.getWrites();
+        return writes.get() + byId.getWrites();
+    }
+
+    /**
+     * Gets the amount of lookups that found a cached protection
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the name of the eviction policy in use
+     *
+     * @return
+     */
+    public String getPolicyName() {
+        return resident ? "resident" : references.getName();
+    }
+
+    /**
+     * Gets the amount of lookups that were answered by the null cache
+     *
+     * @return
+     */
+    public long getNullHits() {
+        return nullHits.get();
+    }
+
+    /**
+     * Gets the amount of lookups that were not in the null cache
+     *
+     * @return
+     */
+    public long getNullMisses() {
+        return nullMisses.get();
+    }
+
+    /**
+     * Gets the amount of coordinates that are known to not have a protection
+     *
+     * @return
+     */
+    public int nullSize() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.nullSize;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Checks if every protection is kept in memory. If so, a protection that is not in the cache does not exist.
+     *
+     * @return
+     */
+    public boolean isResident() {
+        return resident;
+    }
+
+    /**
+     * Gets the measured heap usage per protection of the resident cache
+     *
+     * @return the amount of bytes, or 0 if it was not measured
+     */
+    public long getBytesPerProtection() {
+        return bytesPerProtection;
+    }
+
+    /**
+     * Sets the measured heap usage per protection of the resident cache
+     *
+     * @param bytesPerProtection
+     */
+    public void setBytesPerProtection(long bytesPerProtection) {
+        this.bytesPerProtection = bytesPerProtection;
+    }
+
+    /**
+     * Gets the index of the protections in loaded chunks
+     *
+     * @return
+     */
+    public ChunkIndex getChunkIndex() {
+        return chunkIndex;
+    }
+
+    /**
+     * Gets the filter of the blocks that may be protected
+     *
+     * @return
+     */
+    public ProtectionFilter getFilter() {
+        return filter;
     }
 
     /**
@@ -100,19 +299,46 @@ public class ProtectionCache {
      * @return
      */
     public int capacity() {
-        return capacity;
+        if (!resident) {
+            return capacity;
+        }
+
+        policyLock.lock();
+
+        try {
+            return residentById.size();
+        } finally {
+            policyLock.unlock();
+        }
     }
 
     /**
      * Clears the entire protection cache
      */
     public void clear() {
-        // remove hard refs
-        references.clear();
+        policyLock.lock();
+
+        try {
+            // remove hard refs
+            references.clear();
+            byId.clear();
+
+            if (resident) {
+                residentById.clear();
+            }
+        } finally {
+            policyLock.unlock();
+        }
+
+        // remove the lookup indexes, including known empty coordinates
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
 
-        // remove weak refs
-        byCacheKey.clear();
-        byId.clear();
+        // and load the loaded chunks again
+        chunkIndex.clear();
     }
 
     /**
@@ -121,7 +347,13 @@ public class ProtectionCache {
      * @return
      */
     public int size() {
-        return references.size();
+        policyLock.lock();
+
+        try {
+            return resident ? residentById.size() : references.size();
+        } finally {
+            policyLock.unlock();
+        }
     }
 
     /**
@@ -130,16 +362,111 @@ public class ProtectionCache {
      * @param protection
      */
     public void add(Protection protection) {
+        add(protection, false);
+    }
+
+    /**
+     * Cache a protection unless it (or another protection on the same block) is already cached. Used when warming
+     * the cache in the background, so an instance that is already in use is never replaced.
+     *
+     * @param protection
+     * @return true if the protection was cached
+     */
+    public boolean addIfAbsent(Protection protection) {
+        if (protection == null || byId.get(protection.getId()) != null) {
+            return false;
+        }
+
+        return add(protection, true);
+    }
+
+    /**
+     * Cache a protection
+     *
+     * @param protection
+     * @param ifAbsent if the protection should not be cached when its block already has a cached protection
+     * @return true if the protection was cached
+     */
+    private boolean add(Protection protection, boolean ifAbsent) {
         if (protection == null) {
-            return;
+            return false;
         }
 
-        // Add the hard reference
-        references.put(protection, null);
+        Segment segment = getSegment(protection.getWorld(), protection.getX(), protection.getZ());
+        long key = LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ());
+
+        synchronized (segment) {
+            LongHashMap<Object> index = segment.getWorldIndex(protection.getWorld(), true);
+
+            if (ifAbsent && index.get(key) instanceof Protection) {
+                return false;
+            }
+
+            // the coordinate is no longer empty
+            if (index.put(key, protection) == NULL_PROTECTION) {
+                segment.nullSize--;
+            }
+        }
+
+        writes.incrementAndGet();
+
+        // the coordinate and id indexes hold the only references, nothing is ever evicted
+        if (resident) {
+            policyLock.lock();
 
-        // Add weak references which are used to lookup protections
-        byCacheKey.put(protection.getCacheKey(), protection);
+            try {
+                residentById.put(protection.getId(), protection);
+            } finally {
+                policyLock.unlock();
+            }
+
+            return true;
+        }
+
+        // Add the references which are used to lookup protections
         byId.put(protection.getId(), protection);
+        chunkIndex.add(protection);
+        filter.add(protection);
+
+        // Add the hard reference
+        Protection evicted;
+        policyLock.lock();
+
+        try {
+            evicted = references.add(protection);
+        } finally {
+            policyLock.unlock();
+        }
+
+        // the protection is no longer referenced, so it can no longer be looked up
+        if (evicted != null) {
+            removeCoordinates(evicted);
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the protections that are most worth keeping in the cache
+     *
+     * @param max the max amount of protections to return
+     * @return the protections, the most worth keeping first
+     */
+    public List<Protection> getHottest(int max) {
+        if (resident) {
+            return new ArrayList<Protection>();
+        }
+
+        List<Protection> protections;
+        policyLock.lock();
+
+        try {
+            protections = references.keys();
+        } finally {
+            policyLock.unlock();
+        }
+
+        return protections.size() > max ? new ArrayList<Protection>(protections.subList(0, max)) : protections;
     }
 
     /**
@@ -148,9 +475,159 @@ public class ProtectionCache {
      * @param protection
      */
     public void remove(Protection protection) {
-        references.remove(protection);
-        byCacheKey.remove(protection.getCacheKey());
-        byId.remove(protection.getId());
+        policyLock.lock();
+
+        try {
+            if (resident) {
+                if (protection.equals(residentById.get(protection.getId()))) {
+                    residentById.remove(protection.getId());
+                }
+            } else {
+                references.remove(protection);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+
+        removeCoordinates(protection);
+
+        if (!resident) {
+            byId.remove(protection.getId());
+            chunkIndex.remove(protection);
+        }
+    }
+
+    /**
+     * Mark a coordinate as not having a protection on it
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addNull(String world, int x, int y, int z) {
+        // empty coordinates are already known when resident
+        if (resident) {
+            return;
+        }
+
+        Segment segment = getSegment(world, x, z);
+
+        synchronized (segment) {
+            segment.addNull(world, LongHashMap.pack(x, y, z));
+        }
+    }
+
+    /**
+     * Remove a coordinate from the null cache, e.g when a protection is registered on it
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void removeNull(String world, int x, int y, int z) {
+        Segment segment = getSegment(world, x, z);
+
+        synchronized (segment) {
+            LongHashMap<Object> index = segment.getWorldIndex(world, false);
+
+            if (index == null) {
+                return;
+            }
+
+            long key = LongHashMap.pack(x, y, z);
+
+            if (index.get(key) == NULL_PROTECTION) {
+                index.remove(key);
+                segment.nullSize--;
+            }
+        }
+    }
+
+    /**
+     * Check if a coordinate is known to not have a protection on it
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return true if the database does not need to be checked for the coordinate
+     */
+    public boolean isKnownNull(String world, int x, int y, int z) {
+        // every protection is in memory
+        if (resident) {
+            nullHits.incrementAndGet();
+            return true;
+        }
+
+        // the chunk index knows every protection in its chunks
+        if (chunkIndex.isIndexed(world, x, z)) {
+            nullHits.incrementAndGet();
+            return true;
+        }
+
+        Segment segment = getSegment(world, x, z);
+        boolean known;
+
+        synchronized (segment) {
+            LongHashMap<Object> index = segment.getWorldIndex(world, false);
+            known = index != null && index.get(LongHashMap.pack(x, y, z)) == NULL_PROTECTION;
+        }
+
+        if (known) {
+            nullHits.incrementAndGet();
+            return true;
+        }
+
+        nullMisses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Get a protection in the cache via its coordinates
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public Protection getProtection(String world, int x, int y, int z) {
+        reads.incrementAndGet();
+        Protection indexed = chunkIndex.getProtection(world, x, y, z);
+
+        if (indexed != null) {
+            hit(indexed);
+            return indexed;
+        }
+
+        Segment segment = getSegment(world, x, z);
+        Object value;
+
+        synchronized (segment) {
+            LongHashMap<Object> index = segment.getWorldIndex(world, false);
+
+            if (index == null) {
+                return null;
+            }
+
+            value = index.get(LongHashMap.pack(x, y, z));
+        }
+
+        if (!(value instanceof Protection)) {
+            return null;
+        }
+
+        Protection protection = (Protection) value;
+
+        // coordinates outside of what pack() supports could share a key, so make sure it is the one we want
+        if (protection.getX() != x || protection.getY() != y || protection.getZ() != z) {
+            return null;
+        }
+
+        hit(protection);
+        return protection;
     }
 
     /**
@@ -160,7 +637,24 @@ public class ProtectionCache {
      * @return
      */
     public Protection getProtection(String cacheKey) {
-        return byCacheKey.get(cacheKey);
+        // world:x:y:z -- the world name itself may contain a colon
+        int zIndex = cacheKey.lastIndexOf(':');
+        int yIndex = cacheKey.lastIndexOf(':', zIndex - 1);
+        int xIndex = cacheKey.lastIndexOf(':', yIndex - 1);
+
+        if (xIndex < 0) {
+            return null;
+        }
+
+        try {
+            int x = Integer.parseInt(cacheKey.substring(xIndex + 1, yIndex));
+            int y = Integer.parseInt(cacheKey.substring(yIndex + 1, zIndex));
+            int z = Integer.parseInt(cacheKey.substring(zIndex + 1));
+
+            return getProtection(cacheKey.substring(0, xIndex), x, y, z);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     /**
@@ -170,7 +664,185 @@ public class ProtectionCache {
      * @return
      */
     public Protection getProtectionById(int id) {
-        return byId.get(id);
+        if (resident) {
+            reads.incrementAndGet();
+            policyLock.lock();
+
+            try {
+                return residentById.get(id);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+
+        Protection protection = byId.get(id);
+
+        if (protection != null) {
+            hit(protection);
+        }
+
+        return protection;
+    }
+
+    /**
+     * Record that a lookup found a protection. If another thread is using the policy the use is not recorded, rather
+     * than making the lookup wait for it.
+     *
+     * @param protection
+     */
+    private void hit(Protection protection) {
+        hits.incrementAndGet();
+
+        if (!resident && policyLock.tryLock()) {
+            try {
+                references.access(protection);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Remove a protection from the coordinate index if it is the protection stored there
+     *
+     * @param protection
+     */
+    private void removeCoordinates(Protection protection) {
+        Segment segment = getSegment(protection.getWorld(), protection.getX(), protection.getZ());
+
+        synchronized (segment) {
+            LongHashMap<Object> index = segment.getWorldIndex(protection.getWorld(), false);
+
+            if (index == null) {
+                return;
+            }
+
+            long key = LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ());
+
+            if (protection.equals(index.get(key))) {
+                index.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Get the segment that holds the blocks of a chunk
+     *
+     * @param world
+     * @param x the x coordinate of a block
+     * @param z the z coordinate of a block
+     * @return
+     */
+    private Segment getSegment(String world, int x, int z) {
+        int hash = (world == null ? 0 : world.hashCode()) * 31 + (x >> 4) * 92821 + (z >> 4);
+        hash ^= hash >>> 16;
+        return segments[hash & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Part of the coordinate index and the null cache. Guarded by its own monitor.
+     */
+    private static class Segment {
+
+        /**
+         * Protections (or NULL_PROTECTION) for each world, keyed by their packed coordinates (LongHashMap.pack())
+         */
+        private final Map<String, LongHashMap<Object>> byCoordinates = new HashMap<String, LongHashMap<Object>>();
+
+        /**
+         * The worlds of the coordinates in the null ring, oldest entries are overwritten first
+         */
+        private final LongHashMap<?>[] nullRingWorlds;
+
+        /**
+         * The packed coordinates in the null ring
+         */
+        private final long[] nullRingKeys;
+
+        /**
+         * The next slot in the null ring to use
+         */
+        private int nullRingIndex = 0;
+
+        /**
+         * The amount of coordinates that are known to not have a protection on them
+         */
+        private int nullSize = 0;
+
+        private Segment(int nullCapacity) {
+            this.nullRingWorlds = new LongHashMap<?>[nullCapacity];
+            this.nullRingKeys = new long[nullCapacity];
+        }
+
+        /**
+         * Remember an empty coordinate, forgetting the oldest one if the null ring is full
+         *
+         * @param world
+         * @param key
+         */
+        private void addNull(String world, long key) {
+            // no room for them when the cache size is 0
+            if (nullRingKeys.length == 0) {
+                return;
+            }
+
+            LongHashMap<Object> index = getWorldIndex(world, true);
+
+            if (index.containsKey(key)) {
+                return;
+            }
+
+            // evict the oldest known empty coordinate to make room
+            LongHashMap<?> evictFrom = nullRingWorlds[nullRingIndex];
+
+            if (evictFrom != null) {
+                long evictKey = nullRingKeys[nullRingIndex];
+
+                if (evictFrom.get(evictKey) == NULL_PROTECTION) {
+                    evictFrom.remove(evictKey);
+                    nullSize--;
+                }
+            }
+
+            index.put(key, NULL_PROTECTION);
+            nullRingWorlds[nullRingIndex] = index;
+            nullRingKeys[nullRingIndex] = key;
+            nullRingIndex = (nullRingIndex + 1) % nullRingKeys.length;
+            nullSize++;
+        }
+
+        /**
+         * Forget every coordinate
+         */
+        private void clear() {
+            byCoordinates.clear();
+
+            for (int i = 0; i < nullRingWorlds.length; i++) {
+                nullRingWorlds[i] = null;
+            }
+
+            nullRingIndex = 0;
+            nullSize = 0;
+        }
+
+        /**
+         * Get the coordinate index for a world
+         *
+         * @param world
+         * @param create if the index should be created if the world does not have one yet
+         * @return
+         */
+        private LongHashMap<Object> getWorldIndex(String world, boolean create) {
+            LongHashMap<Object> index = byCoordinates.get(world);
+
+            if (index == null && create) {
+                index = new LongHashMap<Object>();
+                byCoordinates.put(world, index);
+            }
+
+            return index;
+        }
+
     }
 
 }
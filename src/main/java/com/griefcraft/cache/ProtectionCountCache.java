@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the amount of protections players own, in total and per block id, so limits do not have to count them in
+ * the database every time. An owner's counts are loaded at once the first time they are needed and are then kept up
+ * to date when protections are registered, removed or given to another player.
+ * <p/>
+ * Owners are matched the same way the database matches them when counting, so a database that ignores the case of
+ * names (MySQL) keeps one set of counts for every spelling of a name.
+ */
+public class ProtectionCountCache {
+
+    /**
+     * The counts of the owners that were loaded
+     */
+    private final LRUCache<String, Counts> owners;
+
+    /**
+     * If owners that only differ in case are the same owner
+     */
+    private final boolean ignoreCase;
+
+    public ProtectionCountCache(int capacity, boolean ignoreCase) {
+        this.owners = new LRUCache<String, Counts>(capacity);
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Get the amount of protections an owner has
+     *
+     * @param owner
+     * @return the amount of protections, or -1 if the owner's counts are not loaded
+     */
+    public synchronized int getCount(String owner) {
+        Counts counts = owners.get(key(owner));
+        return counts != null ? counts.total : -1;
+    }
+
+    /**
+     * Get the amount of protections an owner has of a block id
+     *
+     * @param owner
+     * @param blockId
+     * @return the amount of protections, or -1 if the owner's counts are not loaded
+     */
+    public synchronized int getCount(String owner, int blockId) {
+        Counts counts = owners.get(key(owner));
+
+        if (counts == null) {
+            return -1;
+        }
+
+        Integer count = counts.byBlockId.get(blockId);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Set the counts of an owner
+     *
+     * @param owner
+     * @param byBlockId the amount of protections the owner has for each block id
+     */
+    public synchronized void load(String owner, Map<Integer, Integer> byBlockId) {
+        Counts counts = new Counts();
+
+        for (Map.Entry<Integer, Integer> entry : byBlockId.entrySet()) {
+            counts.byBlockId.put(entry.getKey(), entry.getValue());
+            counts.total += entry.getValue();
+        }
+
+        owners.put(key(owner), counts);
+    }
+
+    /**
+     * Count a protection that was registered
+     *
+     * @param owner
+     * @param blockId
+     */
+    public void increment(String owner, int blockId) {
+        add(owner, blockId, 1);
+    }
+
+    /**
+     * Stop counting a protection that was removed
+     *
+     * @param owner
+     * @param blockId
+     */
+    public void decrement(String owner, int blockId) {
+        add(owner, blockId, -1);
+    }
+
+    /**
+     * Forget the counts of every owner
+     */
+    public synchronized void clear() {
+        owners.clear();
+    }
+
+    /**
+     * Change the counts of an owner if they are loaded
+     *
+     * @param owner
+     * @param blockId
+     * @param amount
+     */
+    private synchronized void add(String owner, int blockId, int amount) {
+        if (owner == null) {
+            return;
+        }
+
+        Counts counts = owners.get(key(owner));
+
+        if (counts == null) {
+            return;
+        }
+
+        Integer count = counts.byBlockId.get(blockId);
+        int newCount = Math.max(0, (count != null ? count : 0) + amount);
+
+        if (newCount == 0) {
+            counts.byBlockId.remove(blockId);
+        } else {
+            counts.byBlockId.put(blockId, newCount);
+        }
+
+        counts.total = Math.max(0, counts.total + amount);
+    }
+
+    /**
+     * Get the key the counts of an owner are stored under
+     *
+     * @param owner
+     * @return
+     */
+    private String key(String owner) {
+        return ignoreCase && owner != null ? owner.toLowerCase() : owner;
+    }
+
+    /**
+     * The counts of one owner
+     */
+    private static final class Counts {
+
+        /**
+         * The total amount of protections
+         */
+        private int total = 0;
+
+        /**
+         * The amount of protections for each block id
+         */
+        private final Map<Integer, Integer> byBlockId = new HashMap<Integer, Integer>();
+
+    }
+
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A bloom filter of the blocks that have a protection on them, kept separately for each chunk. The filter never
+ * says a protected block is unprotected, so if it says a block is not protected the cache and the database do not
+ * need to be checked at all. It may say an unprotected block is protected about 1% of the time.
+ * <p/>
+ * The filter is built with one scan over the protections table when LWC starts. Protections that are registered,
+ * moved or cached afterwards are added to it. Removed protections are not taken out of it, their blocks are simply
+ * looked up like normal until the next start. Until the scan is done every block may be protected.
+ * <p/>
+ * Only writes made through LWC reach the filter. The admin commands that write to the table directly rebuild it
+ * afterwards, but protections added by another server sharing the same MySQL database are not seen until the server
+ * is restarted.
+ * <p/>
+ * Each chunk with protections in it uses a single long array: the first word is the amount of blocks added, followed
+ * by filters that double in size each time the previous ones are full. That is 10 to 20 bits per protection and a
+ * few dozen bytes per chunk.
+ */
+public class ProtectionFilter implements Runnable {
+
+    /**
+     * The amount of bits used for each block in the first filter of a chunk. Each filter after it uses two more, so
+     * the false positives of all of the filters together stay close to those of the first one.
+     */
+    private static final int BITS_PER_ENTRY = 10;
+
+    /**
+     * The amount of bits set for each block in the first filter of a chunk. Each filter after it sets one more.
+     */
+    private static final int HASHES = 5;
+
+    /**
+     * Logging instance
+     */
+    private Logger logger = Logger.getLogger("Cache");
+
+    /**
+     * The LWC instance this filter belongs to
+     */
+    private final LWC lwc;
+
+    /**
+     * The filters for each world, keyed by ChunkIndex.chunkKey()
+     */
+    private final Map<String, LongHashMap<long[]>> worlds = new HashMap<String, LongHashMap<long[]>>();
+
+    /**
+     * If the filter should be built
+     */
+    private final boolean enabled;
+
+    /**
+     * If blocks are being added to the filter
+     */
+    private volatile boolean running = false;
+
+    /**
+     * If the scan finished and the filter can be used
+     */
+    private volatile boolean ready = false;
+
+    /**
+     * Incremented each time the filter is rebuilt, so a scan that was started before can not mark it ready
+     */
+    private int generation = 0;
+
+    /**
+     * The amount of blocks in the filter
+     */
+    private int size = 0;
+
+    /**
+     * The amount of longs used by the chunk filters
+     */
+    private long words = 0;
+
+    /**
+     * The amount of lookups the filter answered with "not protected"
+     */
+    private long negatives = 0;
+
+    public ProtectionFilter(LWC lwc) {
+        this.lwc = lwc;
+        this.enabled = lwc.getConfiguration().getBoolean("core.protectionFilter", true);
+    }
+
+    /**
+     * Start building the filter in the background
+     */
+    public void start() {
+        if (!enabled || running) {
+            return;
+        }
+
+        // a resident cache already knows every protection
+        if (lwc.getProtectionCache().isResident()) {
+            return;
+        }
+
+        running = true;
+        startScan();
+    }
+
+    /**
+     * Drop the filter and scan the protections table again. Until the scan is done every block may be protected.
+     * Used when protections were written without going through LWC.
+     */
+    public void rebuild() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+
+            ready = false;
+            worlds.clear();
+            size = 0;
+            words = 0;
+            generation++;
+        }
+
+        startScan();
+    }
+
+    /**
+     * Start scanning the protections table into the filter in the background
+     */
+    private void startScan() {
+        Thread thread = new Thread(this, "LWC Protection Filter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop using the filter and drop it
+     */
+    public synchronized void stop() {
+        running = false;
+        ready = false;
+        worlds.clear();
+        size = 0;
+        words = 0;
+    }
+
+    /**
+     * Scan the protections table into the filter
+     */
+    public void run() {
+        int scan;
+
+        synchronized (this) {
+            scan = generation;
+        }
+
+        long start = System.currentTimeMillis();
+        int count = lwc.getPhysicalDatabase().fillProtectionFilter(this);
+
+        if (count < 0 || !running) {
+            // leave the filter unused, lookups will use the cache and the database like normal
+            logger.warning("LWC: Failed to build the protection filter");
+            return;
+        }
+
+        synchronized (this) {
+            // the filter was rebuilt while scanning, the newer scan marks it ready
+            if (scan != generation) {
+                return;
+            }
+
+            ready = true;
+        }
+
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        logger.info("LWC: Protection filter: " + count + " protections in " + time + "ms (~" + (getMemoryUsage() / 1024) + " KB)");
+    }
+
+    /**
+     * @return true if the scan finished and the filter is used for lookups
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return the amount of blocks in the filter
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the amount of lookups the filter answered with "not protected"
+     */
+    public synchronized long getNegatives() {
+        return negatives;
+    }
+
+    /**
+     * @return the approximate amount of bytes used by the filter
+     */
+    public synchronized long getMemoryUsage() {
+        int chunks = 0;
+
+        for (LongHashMap<long[]> chunkFilters : worlds.values()) {
+            chunks += chunkFilters.size();
+        }
+
+        // the words themselves, the array header and the slot in the chunk map
+        return words * 8 + chunks * 40L;
+    }
+
+    /**
+     * Add a protection's block to the filter
+     *
+     * @param protection
+     */
+    public void add(Protection protection) {
+        add(protection.getWorld(), protection.getX(), protection.getY(), protection.getZ());
+    }
+
+    /**
+     * Add a block to the filter
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     */
+    public synchronized void add(String world, int x, int y, int z) {
+        if (!running || world == null) {
+            return;
+        }
+
+        LongHashMap<long[]> chunkFilters = worlds.get(world);
+
+        if (chunkFilters == null) {
+            chunkFilters = new LongHashMap<long[]>();
+            worlds.put(world, chunkFilters);
+        }
+
+        long chunkKey = ChunkIndex.chunkKey(x >> 4, z >> 4);
+        long[] filter = chunkFilters.get(chunkKey);
+        long hash = hash(x, y, z);
+
+        if (filter == null) {
+            filter = new long[2];
+            chunkFilters.put(chunkKey, filter);
+            words += filter.length;
+        } else if (contains(filter, hash)) {
+            // cached again, or a false positive: either way there is nothing to add
+            return;
+        }
+
+        // all of the filters are full, add one twice as big as the last one
+        if (filter[0] >= capacity(filter.length)) {
+            long[] grown = Arrays.copyOf(filter, filter.length * 2);
+            chunkFilters.put(chunkKey, grown);
+            words += filter.length;
+            filter = grown;
+        }
+
+        // new blocks always go in the newest filter
+        int offset = filter.length / 2;
+        set(filter, offset, hash);
+        filter[0]++;
+        size++;
+    }
+
+    /**
+     * Check if a block may have a protection on it
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return false if the block is definitely not protected
+     */
+    public boolean mightContain(String world, int x, int y, int z) {
+        if (!ready) {
+            return true;
+        }
+
+        synchronized (this) {
+            LongHashMap<long[]> chunkFilters = worlds.get(world);
+            long[] filter = chunkFilters == null ? null : chunkFilters.get(ChunkIndex.chunkKey(x >> 4, z >> 4));
+
+            if (filter != null && contains(filter, hash(x, y, z))) {
+                return true;
+            }
+
+            negatives++;
+            return false;
+        }
+    }
+
+    /**
+     * Check every filter in a chunk's array for a block
+     *
+     * @param filter
+     * @param hash
+     * @return
+     */
+    private static boolean contains(long[] filter, long hash) {
+        // the filter of n words starts at word n
+        for (int offset = 1; offset < filter.length; offset *= 2) {
+            if (isSet(filter, offset, hash)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Set the bits for a block in one filter
+     *
+     * @param filter
+     * @param offset the first word of the filter, which is also its length
+     * @param hash
+     */
+    private static void set(long[] filter, int offset, long hash) {
+        int bits = offset * 64;
+        int hashes = HASHES + Integer.numberOfTrailingZeros(offset);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & (bits - 1);
+            filter[offset + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Check if the bits for a block are set in one filter
+     *
+     * @param filter
+     * @param offset the first word of the filter, which is also its length
+     * @param hash
+     * @return
+     */
+    private static boolean isSet(long[] filter, int offset, long hash) {
+        int bits = offset * 64;
+        int hashes = HASHES + Integer.numberOfTrailingZeros(offset);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+
+        for (int i = 0; i < hashes; i++) {
+            int bit = (h1 + i * h2) & (bits - 1);
+
+            if ((filter[offset + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the amount of blocks that fit in a chunk's array before another filter has to be added
+     *
+     * @param length the length of the array
+     * @return
+     */
+    private static long capacity(int length) {
+        long capacity = 0;
+
+        // the filter of n words starts at word n
+        for (int offset = 1, level = 0; offset < length; offset *= 2, level++) {
+            capacity += offset * 64L / (BITS_PER_ENTRY + 2 * level);
+        }
+
+        return capacity;
+    }
+
+    /**
+     * Hash a block's coordinates
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private static long hash(int x, int y, int z) {
+        long hash = LongHashMap.pack(x, y, z);
+
+        // mix the bits so blocks next to each other do not share bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9a34f7163f3L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
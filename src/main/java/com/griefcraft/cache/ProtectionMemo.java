@@ -0,0 +1,193 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.model.Protection;
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the result of LWC.findProtection for each block during the current server tick. A single action can
+ * look the same block up several times (e.g redstone changes or pistons pushing past each other), and the blocks
+ * do not change in between. The memo is cleared at the end of every tick and whenever a protection is created or
+ * removed.
+ * <p/>
+ * Only used on the main thread; lookups from other threads are not remembered.
+ */
+public class ProtectionMemo implements Runnable {
+
+    /**
+     * Remembered for blocks that are not protected
+     */
+    public static final Object NO_PROTECTION = new Object();
+
+    /**
+     * The LWC instance
+     */
+    private final LWC lwc;
+
+    /**
+     * The server's main thread
+     */
+    private final Thread mainThread;
+
+    /**
+     * The remembered results for each world, keyed by LongHashMap.pack()
+     */
+    private final Map<String, LongHashMap<Object>> results = new HashMap<String, LongHashMap<Object>>();
+
+    /**
+     * If anything is remembered
+     */
+    private boolean empty = true;
+
+    /**
+     * Set when the memo should be cleared, which can be done from any thread
+     */
+    private volatile boolean invalidated = false;
+
+    /**
+     * The amount of lookups answered by the memo
+     */
+    private long hits = 0L;
+
+    /**
+     * Must be created on the main thread
+     *
+     * @param lwc
+     */
+    public ProtectionMemo(LWC lwc) {
+        this.lwc = lwc;
+        this.mainThread = Thread.currentThread();
+    }
+
+    /**
+     * Start clearing the memo every tick
+     */
+    public void start() {
+        lwc.getPlugin().getServer().getScheduler().scheduleSyncRepeatingTask(lwc.getPlugin(), this, 1, 1);
+    }
+
+    /**
+     * Check if the memo can be used by the current thread
+     *
+     * @return
+     */
+    public boolean isAvailable() {
+        return Thread.currentThread() == mainThread;
+    }
+
+    /**
+     * Get the remembered result for a block
+     *
+     * @param block
+     * @return the protection, {@link #NO_PROTECTION} if the block is not protected or null if nothing is remembered
+     */
+    public Object get(Block block) {
+        if (empty || invalidated) {
+            return null;
+        }
+
+        LongHashMap<Object> world = results.get(block.getWorld().getName());
+
+        if (world == null) {
+            return null;
+        }
+
+        Object result = world.get(LongHashMap.pack(block.getX(), block.getY(), block.getZ()));
+
+        if (result != null) {
+            hits++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Remember the protection for a block until the end of the tick
+     *
+     * @param block
+     * @param protection the protection, or null if the block is not protected
+     */
+    public void put(Block block, Protection protection) {
+        if (invalidated) {
+            clear();
+        }
+
+        String worldName = block.getWorld().getName();
+        LongHashMap<Object> world = results.get(worldName);
+
+        if (world == null) {
+            world = new LongHashMap<Object>();
+            results.put(worldName, world);
+        }
+
+        world.put(LongHashMap.pack(block.getX(), block.getY(), block.getZ()), protection == null ? NO_PROTECTION : protection);
+        empty = false;
+    }
+
+    /**
+     * Forget everything, e.g when a protection is created or removed. Can be called from any thread.
+     */
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    /**
+     * @return the amount of lookups answered by the memo
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Forget everything, on the main thread
+     */
+    private void clear() {
+        invalidated = false;
+
+        if (empty) {
+            return;
+        }
+
+        for (LongHashMap<Object> world : results.values()) {
+            world.clear();
+        }
+
+        empty = true;
+    }
+
+    public void run() {
+        clear();
+    }
+
+}
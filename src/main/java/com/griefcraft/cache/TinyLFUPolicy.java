@@ -0,0 +1,326 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * W-TinyLFU: new keys enter a small LRU window. Keys leaving the window are only admitted into the main cache if
+ * they have been used more often than the key the main cache would evict for them, so a scan over many protections
+ * that are used once (e.g a cleanup or /lwc admin find) can not flush out the protections that are used all the time.
+ * <p/>
+ * The main cache is a segmented LRU: keys start on probation and are moved to the protected segment when used again.
+ * How often keys are used is estimated by a count-min sketch which is halved regularly so it forgets old popularity.
+ */
+public class TinyLFUPolicy<K> implements CachePolicy<K> {
+
+    /**
+     * Keys that were recently added, the eldest first
+     */
+    private final LinkedHashMap<K, Boolean> window = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+    /**
+     * Keys in the main cache that have not been used since they were admitted, the eldest first
+     */
+    private final LinkedHashMap<K, Boolean> probation = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+    /**
+     * Keys in the main cache that were used again, the eldest first
+     */
+    private final LinkedHashMap<K, Boolean> protectedKeys = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+    /**
+     * The estimated popularity of keys
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * The max number of keys in the window
+     */
+    private final int windowCapacity;
+
+    /**
+     * The max number of keys in the main cache
+     */
+    private final int mainCapacity;
+
+    /**
+     * The max number of keys in the protected segment
+     */
+    private final int protectedCapacity;
+
+    public TinyLFUPolicy(int capacity) {
+        this.windowCapacity = Math.max(1, capacity / 100);
+        this.mainCapacity = Math.max(0, capacity - windowCapacity);
+        this.protectedCapacity = mainCapacity * 4 / 5;
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    public String getName() {
+        return "tinylfu";
+    }
+
+    public void access(K key) {
+        sketch.increment(key);
+
+        // access ordered, so this moves the key to the end
+        if (window.get(key) != null || protectedKeys.get(key) != null) {
+            return;
+        }
+
+        // used again, so it is worth protecting
+        if (probation.remove(key) != null) {
+            protectedKeys.put(key, Boolean.TRUE);
+
+            if (protectedKeys.size() > protectedCapacity) {
+                K demoted = eldest(protectedKeys);
+                protectedKeys.remove(demoted);
+                probation.put(demoted, Boolean.TRUE);
+            }
+        }
+    }
+
+    public K add(K key) {
+        if (window.containsKey(key) || probation.containsKey(key) || protectedKeys.containsKey(key)) {
+            access(key);
+            return null;
+        }
+
+        sketch.increment(key);
+        window.put(key, Boolean.TRUE);
+
+        if (window.size() <= windowCapacity) {
+            return null;
+        }
+
+        // the eldest key in the window has to be admitted into the main cache or be evicted
+        K candidate = eldest(window);
+        window.remove(candidate);
+
+        if (probation.size() + protectedKeys.size() < mainCapacity) {
+            probation.put(candidate, Boolean.TRUE);
+            return null;
+        }
+
+        LinkedHashMap<K, Boolean> victimSegment = probation.isEmpty() ? protectedKeys : probation;
+
+        if (victimSegment.isEmpty()) {
+            return candidate;
+        }
+
+        K victim = eldest(victimSegment);
+
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            victimSegment.remove(victim);
+            probation.put(candidate, Boolean.TRUE);
+            return victim;
+        }
+
+        return candidate;
+    }
+
+    public void remove(K key) {
+        if (window.remove(key) == null && probation.remove(key) == null) {
+            protectedKeys.remove(key);
+        }
+    }
+
+    public int size() {
+        return window.size() + probation.size() + protectedKeys.size();
+    }
+
+    public List<K> keys() {
+        List<K> result = new ArrayList<K>(size());
+
+        List<LinkedHashMap<K, Boolean>> segments = new ArrayList<LinkedHashMap<K, Boolean>>(3);
+        segments.add(protectedKeys);
+        segments.add(probation);
+        segments.add(window);
+
+        // protected keys were used more than once, so they come first. Each segment is most recently used first
+        for (LinkedHashMap<K, Boolean> segment : segments) {
+            List<K> segmentKeys = new ArrayList<K>(segment.keySet());
+            Collections.reverse(segmentKeys);
+            result.addAll(segmentKeys);
+        }
+
+        return result;
+    }
+
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedKeys.clear();
+    }
+
+    /**
+     * Get the eldest key in a segment
+     *
+     * @param segment
+     * @return
+     */
+    private K eldest(LinkedHashMap<K, Boolean> segment) {
+        return segment.keySet().iterator().next();
+    }
+
+    /**
+     * A count-min sketch with 4 rows of 4-bit counters, 16 counters are packed into each long
+     */
+    private static final class FrequencySketch {
+
+        /**
+         * Seeds used to pick the counter in each row
+         */
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+        /**
+         * The counters
+         */
+        private final long[] table;
+
+        /**
+         * Mask to get an index into the table
+         */
+        private final int mask;
+
+        /**
+         * The amount of increments after which every counter is halved
+         */
+        private final int sampleSize;
+
+        /**
+         * The amount of increments since the counters were last halved
+         */
+        private int additions = 0;
+
+        private FrequencySketch(int capacity) {
+            int size = 16;
+
+            while (size < capacity && size < (1 << 30)) {
+                size <<= 1;
+            }
+
+            this.table = new long[size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * Math.max(1, capacity);
+        }
+
+        /**
+         * Get the estimated amount of times a key was used
+         *
+         * @param key
+         * @return
+         */
+        private int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = 15;
+
+            for (int i = 0; i < 4; i++) {
+                frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xFL));
+            }
+
+            return frequency;
+        }
+
+        /**
+         * Increment the counters of a key
+         *
+         * @param key
+         */
+        private void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = offsetOf(hash, i);
+
+                if (((table[index] >>> offset) & 0xFL) != 0xFL) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        /**
+         * Halve every counter
+         */
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+
+            additions /= 2;
+        }
+
+        /**
+         * Get the index into the table of a key's counter in a row
+         *
+         * @param hash
+         * @param row
+         * @return
+         */
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        /**
+         * Get the bit offset of a key's counter in a row inside of its long
+         *
+         * @param hash
+         * @param row
+         * @return
+         */
+        private int offsetOf(int hash, int row) {
+            return ((hash >>> (row << 3)) & 0xF) << 2;
+        }
+
+        /**
+         * Spread the bits of a hash code, as the hash codes of protections are not very random
+         *
+         * @param hash
+         * @return
+         */
+        private int spread(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+    }
+
+}
@@ -34,10 +34,12 @@ import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Similar to LRUCache but instead uses WeakReferences.
  * The key must be a hard ref, while the value will be a weak reference
+ * Every method is synchronized so the cache can be shared between threads
  */
 public class WeakLRUCache<K, V> implements Map<K, V> {
 
@@ -54,12 +56,12 @@ public class WeakLRUCache<K, V> implements Map<K, V> {
     /**
      * Amount of reads performed on the cache
      */
-    private long reads = 0;
+    private final AtomicLong reads = new AtomicLong();
 
     /**
      * Amount of writes performed on the cache
      */
-    private long writes = 0;
+    private final AtomicLong writes = new AtomicLong();
 
     public WeakLRUCache(final int maxCapacity) {
         this.weakCache = new LinkedHashMap<K, WeakValue<V, K>>(maxCapacity) {
@@ -74,14 +76,14 @@ public class WeakLRUCache<K, V> implements Map<K, V> {
      * @return amount of reads on the cache
      */
     public long getReads() {
-        return reads;
+        return reads.get();
     }
 
     /**
      * @return amount of writes on the cache
      */
     public long getWrites() {
-        return writes;
+        return writes.get();
     }
 
     /**
@@ -100,38 +102,38 @@ public class WeakLRUCache<K, V> implements Map<K, V> {
      *
      * @return
      */
-    public int size() {
+    public synchronized int size() {
         processQueue();
         return weakCache.size();
     }
 
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         processQueue();
         return weakCache.isEmpty();
     }
 
-    public boolean containsKey(Object key) {
+    public synchronized boolean containsKey(Object key) {
         processQueue();
         return weakCache.containsKey(key);
     }
 
-    public boolean containsValue(Object value) {
+    public synchronized boolean containsValue(Object value) {
         processQueue();
         return weakCache.containsValue(value);
     }
 
-    public void clear() {
+    public synchronized void clear() {
         processQueue();
         weakCache.clear();
     }
 
-    public Set<K> keySet() {
+    public synchronized Set<K> keySet() {
         processQueue();
         return weakCache.keySet();
     }
 
-    public V get(Object key) {
-        reads++;
+    public synchronized V get(Object key) {
+        reads.incrementAndGet();
         processQueue();
 
         WeakValue<V, K> weakRef = weakCache.get(key);
@@ -149,15 +151,15 @@ public class WeakLRUCache<K, V> implements Map<K, V> {
         return result;
     }
 
-    public V put(K key, V value) {
-        writes++;
+    public synchronized V put(K key, V value) {
+        writes.incrementAndGet();
         processQueue();
 
         WeakValue<V, K> oldRef = weakCache.put(key, new WeakValue<V, K>(value, key, queue));
         return oldRef != null ? oldRef.get() : null;
     }
 
-    public V remove(Object key) {
+    public synchronized V remove(Object key) {
         WeakValue<V, K> old = weakCache.remove(key);
         return old != null ? old.get() : null;
     }
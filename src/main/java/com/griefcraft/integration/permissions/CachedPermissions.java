@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.integration.permissions;
+
+import com.griefcraft.integration.IPermissions;
+import com.griefcraft.lwc.LWC;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the groups and permission nodes of each player for a short time, so checking access to protections
+ * does not have to ask the permissions plugin every time. The snapshot of a player is thrown away when it is
+ * older than core.permissionCacheTime seconds, when the player quits or changes world, and when LWC is reloaded.
+ */
+public class CachedPermissions implements IPermissions {
+
+    /**
+     * The permissions handler that is actually used
+     */
+    private final IPermissions parent;
+
+    /**
+     * The snapshot of each player, by name
+     */
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+    /**
+     * How long a snapshot is used for, in milliseconds. 0 disables the cache.
+     */
+    private volatile long timeToLive;
+
+    public CachedPermissions(IPermissions parent) {
+        this.parent = parent;
+        reload();
+    }
+
+    /**
+     * @return the permissions handler that is actually used
+     */
+    public IPermissions getParent() {
+        return parent;
+    }
+
+    public List<String> getGroups(Player player) {
+        Snapshot snapshot = getSnapshot(player);
+
+        if (snapshot == null) {
+            return parent.getGroups(player);
+        }
+
+        List<String> groups = snapshot.groups;
+
+        if (groups == null) {
+            List<String> found = parent.getGroups(player);
+            groups = found == null ? null : Collections.unmodifiableList(new ArrayList<String>(found));
+            snapshot.groups = groups;
+        }
+
+        return groups;
+    }
+
+    /**
+     * Get the cached result of a permission check
+     *
+     * @param player
+     * @param node
+     * @return the cached result, or null if the node was not checked recently
+     */
+    public Boolean getPermission(Player player, String node) {
+        Snapshot snapshot = getSnapshot(player);
+        return snapshot == null ? null : snapshot.nodes.get(node);
+    }
+
+    /**
+     * Remember the result of a permission check
+     *
+     * @param player
+     * @param node
+     * @param value
+     */
+    public void setPermission(Player player, String node, boolean value) {
+        Snapshot snapshot = getSnapshot(player);
+
+        if (snapshot != null) {
+            snapshot.nodes.put(node, value);
+        }
+    }
+
+    /**
+     * Forget everything about a player, e.g when they quit
+     *
+     * @param player
+     */
+    public void invalidate(Player player) {
+        snapshots.remove(player.getName());
+    }
+
+    /**
+     * Forget everything and read the cache time from the configuration again
+     */
+    public void reload() {
+        timeToLive = Math.max(0, LWC.getInstance().getConfiguration().getInt("core.permissionCacheTime", 30)) * 1000L;
+        snapshots.clear();
+    }
+
+    /**
+     * Get the snapshot of a player, creating a new one if they do not have one or it is outdated
+     *
+     * @param player
+     * @return the snapshot, or null if the cache is disabled
+     */
+    private Snapshot getSnapshot(Player player) {
+        if (timeToLive == 0) {
+            return null;
+        }
+
+        String world = player.getWorld().getName();
+        Snapshot snapshot = snapshots.get(player.getName());
+
+        // groups can be per world
+        if (snapshot == null || !snapshot.world.equals(world) || System.currentTimeMillis() - snapshot.created > timeToLive) {
+            snapshot = new Snapshot(world);
+            snapshots.put(player.getName(), snapshot);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * The groups and permission nodes of a player at one point in time
+     */
+    private static class Snapshot {
+
+        /**
+         * When the snapshot was created
+         */
+        private final long created = System.currentTimeMillis();
+
+        /**
+         * The world the player was in
+         */
+        private final String world;
+
+        /**
+         * The groups the player is in, null until they are first needed
+         */
+        private volatile List<String> groups;
+
+        /**
+         * The results of the permission nodes that were checked
+         */
+        private final Map<String, Boolean> nodes = new ConcurrentHashMap<String, Boolean>();
+
+        public Snapshot(String world) {
+            this.world = world;
+        }
+
+    }
+
+}
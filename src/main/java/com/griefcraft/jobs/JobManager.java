@@ -29,6 +29,7 @@
 package com.griefcraft.jobs;
 
 import com.griefcraft.jobs.impl.CleanupJobHandler;
+import com.griefcraft.jobs.impl.ConvertDataJobHandler;
 import com.griefcraft.jobs.impl.ExpireJobHandler;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Job;
@@ -113,6 +114,7 @@ public class JobManager {
         {
             handlers.add(new CleanupJobHandler());
             handlers.add(new ExpireJobHandler());
+            handlers.add(new ConvertDataJobHandler());
         }
     }
 
@@ -71,7 +71,8 @@ public class LWCBlockListener extends BlockListener {
         LWC lwc = plugin.getLWC();
         Block block = event.getBlock();
 
-        if (block == null) {
+        // most redstone changes are nowhere near a protection
+        if (block == null || !lwc.canHaveProtection(block)) {
             return;
         }
 
@@ -127,7 +128,7 @@ public class LWCBlockListener extends BlockListener {
         Block block = event.getBlock();
         Material material = block.getType();
 
-        boolean ignoreBlockDestruction = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(material, "ignoreBlockDestruction"));
+        boolean ignoreBlockDestruction = lwc.getProtectionConfiguration(material).ignoreBlockDestruction();
 
         if (ignoreBlockDestruction) {
             return;
@@ -184,13 +185,13 @@ public class LWCBlockListener extends BlockListener {
         if (moved.getType() == Material.WOODEN_DOOR || moved.getType() == Material.IRON_DOOR_BLOCK) {
             Block below = moved.getRelative(BlockFace.DOWN).getRelative(direction.getOppositeFace());
 
-            if (lwc.findProtection(below) != null) {
+            if (lwc.canHaveProtection(below) && lwc.findProtection(below) != null) {
                 event.setCancelled(true);
                 return;
             }
         }
 
-        if (lwc.findProtection(moved) != null) {
+        if (lwc.canHaveProtection(moved) && lwc.findProtection(moved) != null) {
             event.setCancelled(true);
         }
     }
@@ -212,9 +213,7 @@ public class LWCBlockListener extends BlockListener {
             direction = ((PistonBaseMaterial) data).getFacing();
             Block block = event.getBlock().getRelative(direction);
 
-            Protection protection = lwc.findProtection(block);
-
-            if (protection != null) {
+            if (lwc.canHaveProtection(block) && lwc.findProtection(block) != null) {
                 event.setCancelled(true);
                 return;
             }
@@ -228,14 +227,13 @@ public class LWCBlockListener extends BlockListener {
         // Check the affected blocks
         for (int i = 0; i < event.getLength() + 2; i++) {
             Block block = piston.getRelative(direction, i);
-            Protection protection = lwc.findProtection(block);
 
             // We don't want that!
             if (block.getType() == Material.AIR) {
                 break;
             }
 
-            if (protection != null) {
+            if (lwc.canHaveProtection(block) && lwc.findProtection(block) != null) {
                 event.setCancelled(true);
                 break;
             }
@@ -260,7 +258,7 @@ public class LWCBlockListener extends BlockListener {
             return;
         }
 
-        String autoRegisterType = plugin.getLWC().resolveProtectionConfiguration(block.getType(), "autoRegister");
+        String autoRegisterType = plugin.getLWC().getProtectionConfiguration(block.getType()).getAutoRegister();
 
         // is it auto protectable?
         if (!autoRegisterType.equalsIgnoreCase("private") && !autoRegisterType.equalsIgnoreCase("public")) {
@@ -315,7 +313,7 @@ public class LWCBlockListener extends BlockListener {
             // All good!
             Protection protection = lwc.getPhysicalDatabase().registerProtection(block.getTypeId(), type, block.getWorld().getName(), player.getName(), "", block.getX(), block.getY(), block.getZ());
 
-            if (!Boolean.parseBoolean(lwc.resolveProtectionConfiguration(block.getType(), "quiet"))) {
+            if (!lwc.getProtectionConfiguration(block.getType()).isQuiet()) {
                 lwc.sendLocale(player, "protection.onplace.create.finalize", "type", lwc.getLocale(autoRegisterType.toLowerCase()), "block", LWC.materialToString(block));
             }
 
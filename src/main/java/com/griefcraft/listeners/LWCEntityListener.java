@@ -32,7 +32,6 @@ import com.griefcraft.lwc.LWC;
 import com.griefcraft.lwc.LWCPlugin;
 import com.griefcraft.model.Flag;
 import com.griefcraft.model.Protection;
-import org.bukkit.block.Block;
 import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.event.entity.EntityListener;
 
@@ -55,17 +54,14 @@ public class LWCEntityListener extends EntityListener {
         
         LWC lwc = LWC.getInstance();
 
-        for (Block block : event.blockList()) {
-            Protection protection = plugin.getLWC().findProtection(block);
+        // every protection in the explosion is found at once, most of an explosion is plain terrain
+        for (Protection protection : lwc.findProtections(event.blockList())) {
+            boolean ignoreExplosions = lwc.getProtectionConfiguration(protection.getBlock().getType()).ignoreExplosions();
 
-            if (protection != null) {
-                boolean ignoreExplosions = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(protection.getBlock().getType(), "ignoreExplosions"));
-
-                if (ignoreExplosions || protection.hasFlag(Flag.Type.ALLOWEXPLOSIONS)) {
-                    protection.remove();
-                } else {
-                    event.setCancelled(true);
-                }
+            if (ignoreExplosions || protection.hasFlag(Flag.Type.ALLOWEXPLOSIONS)) {
+                protection.remove();
+            } else {
+                event.setCancelled(true);
             }
         }
     }
@@ -140,7 +140,7 @@ public class LWCPlayerListener extends PlayerListener {
             boolean canAdmin = lwc.canAdminProtection(player, protection);
 
             if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
-                boolean ignoreLeftClick = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(material, "ignoreLeftClick"));
+                boolean ignoreLeftClick = lwc.getProtectionConfiguration(material).ignoreLeftClick();
 
                 if (ignoreLeftClick) {
                     lwcPlayer.debug("ignoreLeftClick!");
@@ -148,7 +148,7 @@ public class LWCPlayerListener extends PlayerListener {
                     return;
                 }
             } else if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
-                boolean ignoreRightClick = Boolean.parseBoolean(lwc.resolveProtectionConfiguration(material, "ignoreRightClick"));
+                boolean ignoreRightClick = lwc.getProtectionConfiguration(material).ignoreRightClick();
 
                 if (ignoreRightClick) {
                     lwcPlayer.debug("ignoreRightClick!");
@@ -252,6 +252,7 @@ public class LWCPlayerListener extends PlayerListener {
 
         // remove the place from the player cache and reset anything they can access
         LWCPlayer.removePlayer(event.getPlayer());
+        plugin.getLWC().getPermissionCache().invalidate(event.getPlayer());
     }
 
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.listeners;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.lwc.LWCPlugin;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldListener;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+public class LWCWorldListener extends WorldListener {
+
+    /**
+     * The plugin instance
+     */
+    private LWCPlugin plugin;
+
+    public LWCWorldListener(LWCPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void onChunkLoad(ChunkLoadEvent event) {
+        if (!LWC.ENABLED) {
+            return;
+        }
+
+        plugin.getLWC().getProtectionCache().getChunkIndex().load(event.getChunk());
+    }
+
+    @Override
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        if (!LWC.ENABLED || event.isCancelled()) {
+            return;
+        }
+
+        plugin.getLWC().getProtectionCache().getChunkIndex().unload(event.getChunk());
+    }
+
+    @Override
+    public void onWorldUnload(WorldUnloadEvent event) {
+        if (!LWC.ENABLED || event.isCancelled()) {
+            return;
+        }
+
+        plugin.getLWC().getProtectionCache().getChunkIndex().unloadWorld(event.getWorld().getName());
+    }
+
+}
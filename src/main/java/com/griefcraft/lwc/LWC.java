@@ -29,7 +29,9 @@
 package com.griefcraft.lwc;
 
 import com.firestar.mcbans.mcbans;
+import com.griefcraft.cache.CacheSnapshot;
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionMemo;
 import com.griefcraft.integration.ICurrency;
 import com.griefcraft.integration.IPermissions;
 import com.griefcraft.integration.currency.BOSECurrency;
@@ -38,6 +40,7 @@ import com.griefcraft.integration.currency.NoCurrency;
 import com.griefcraft.integration.currency.iConomy5Currency;
 import com.griefcraft.integration.currency.iConomy6Currency;
 import com.griefcraft.integration.permissions.BukkitPermissions;
+import com.griefcraft.integration.permissions.CachedPermissions;
 import com.griefcraft.integration.permissions.NijiPermissions;
 import com.griefcraft.integration.permissions.NoPermissions;
 import com.griefcraft.integration.permissions.PEXPermissions;
@@ -100,19 +103,25 @@ import com.griefcraft.modules.setup.LimitsSetup;
 import com.griefcraft.modules.towny.TownyModule;
 import com.griefcraft.modules.unlock.UnlockModule;
 import com.griefcraft.modules.worldguard.WorldGuardModule;
+import com.griefcraft.scripting.JavaModule;
 import com.griefcraft.scripting.Module;
 import com.griefcraft.scripting.ModuleLoader;
 import com.griefcraft.scripting.event.LWCAccessEvent;
+import com.griefcraft.scripting.event.LWCReloadEvent;
 import com.griefcraft.scripting.event.LWCSendLocaleEvent;
 import com.griefcraft.sql.Database;
 import com.griefcraft.sql.PhysDB;
+import com.griefcraft.util.Callback;
 import com.griefcraft.util.Colors;
+import com.griefcraft.util.DatabaseExecutor;
 import com.griefcraft.util.DatabaseThread;
 import com.griefcraft.util.Metrics;
 import com.griefcraft.util.ProtectionFinder;
+import com.griefcraft.util.ProtectionRegion;
 import com.griefcraft.util.Statistics;
 import com.griefcraft.util.StopWatch;
 import com.griefcraft.util.StringUtil;
+import com.griefcraft.util.config.BlockProtectionConfig;
 import com.griefcraft.util.config.Configuration;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
@@ -132,16 +141,25 @@ import org.bukkit.plugin.Plugin;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 public class LWC {
@@ -176,6 +194,11 @@ public class LWC {
      */
     private final ProtectionCache protectionCache;
 
+    /**
+     * The protections found during the current tick
+     */
+    private ProtectionMemo protectionMemo;
+
     /**
      * Logging instance
      */
@@ -196,16 +219,31 @@ public class LWC {
      */
     private DatabaseThread databaseThread;
 
+    /**
+     * Runs lookups that are not needed right away off of the main thread
+     */
+    private DatabaseExecutor databaseExecutor;
+
     /**
      * The permissions handler
      */
-    private IPermissions permissions;
+    private CachedPermissions permissions;
 
     /**
      * The currency handler
      */
     private ICurrency currency;
 
+    /**
+     * The resolved protection configuration of each block type
+     */
+    private volatile Map<Material, BlockProtectionConfig> protectionConfiguration;
+
+    /**
+     * The ids of the block types that are protectable, resolved along with the protection configuration
+     */
+    private volatile BitSet protectableMaterials;
+
     public LWC(LWCPlugin plugin) {
         this.plugin = plugin;
         LWC.instance = this;
@@ -546,6 +584,11 @@ public class LWC {
         // destroy the modules
         moduleLoader.shutdown();
 
+        if (databaseExecutor != null) {
+            databaseExecutor.shutdown();
+            databaseExecutor = null;
+        }
+
         log("Flushing protection updates (" + databaseThread.size() + ")");
 
         if (databaseThread != null) {
@@ -553,6 +596,12 @@ public class LWC {
             databaseThread = null;
         }
 
+        protectionCache.getChunkIndex().stop();
+        protectionCache.getFilter().stop();
+
+        // remember what was in the cache for the next start
+        new CacheSnapshot(this).save();
+
         log("Freeing " + Database.DefaultType);
 
         if (physicalDatabase != null) {
@@ -614,11 +663,10 @@ public class LWC {
         if (hasAccess) {
             long timestamp = System.currentTimeMillis() / 1000L;
 
-            protection.setLastAccessed(timestamp);
-            protection.save();
+            protection.updateLastAccessed(timestamp);
         }
 
-        if (configuration.getBoolean("core.showNotices", true) && !Boolean.parseBoolean(resolveProtectionConfiguration(block.getType(), "quiet"))) {
+        if (configuration.getBoolean("core.showNotices", true) && !getProtectionConfiguration(block.getType()).isQuiet()) {
             boolean isOwner = protection.isOwner(player);
             boolean showMyNotices = configuration.getBoolean("core.showMyNotices", true);
 
@@ -737,19 +785,9 @@ public class LWC {
                     return true;
                 }
 
-                // Check for item keys
-                for (Permission permission : protection.getPermissions()) {
-                    if (permission.getType() != Permission.Type.ITEM) {
-                        continue;
-                    }
-
-                    // Get the item they need to have
-                    int item = Integer.parseInt(permission.getName());
-
-                    // Are they wielding it?
-                    if (player.getItemInHand().getTypeId() == item) {
-                        return true;
-                    }
+                // Check for item keys: are they wielding one?
+                if (player.getItemInHand() != null && protection.isItemKey(player.getItemInHand().getTypeId())) {
+                    return true;
                 }
 
                 for (String groupName : permissions.getGroups(player)) {
@@ -802,9 +840,28 @@ public class LWC {
      * @return
      */
     public boolean hasPermission(Player player, String node) {
+        Boolean cached = permissions.getPermission(player, node);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean value = checkPermission(player, node);
+        permissions.setPermission(player, node, value);
+        return value;
+    }
+
+    /**
+     * Check if a player has a permissions node, without using the cache
+     *
+     * @param player
+     * @param node
+     * @return
+     */
+    private boolean checkPermission(Player player, String node) {
         // if Permissions 2/3 is found, don't use anything else
-        if (permissions instanceof NijiPermissions) {
-            return ((NijiPermissions)permissions).permission(player, node);
+        if (permissions.getParent() instanceof NijiPermissions) {
+            return ((NijiPermissions) permissions.getParent()).permission(player, node);
         }
 
         // Dev mode
@@ -1029,7 +1086,7 @@ public class LWC {
         int count = 0;
 
         // flush all changes to the database before working on the live database
-        databaseThread.flush();
+        databaseThread.flushNow();
 
         if (shouldRemoveBlocks) {
             removeBlocks = new LinkedList<Block>();
@@ -1040,9 +1097,12 @@ public class LWC {
         }
 
         sender.sendMessage("Loading protections via STREAM mode");
+        Connection scanConnection = null;
 
         try {
-            Statement resultStatement = physicalDatabase.getConnection().createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // streamed on a connection of its own, other threads can not use a connection while it streams
+            scanConnection = physicalDatabase.openConnection();
+            Statement resultStatement = scanConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
 
             if (physicalDatabase.getType() == Database.Type.MySQL) {
                 resultStatement.setFetchSize(Integer.MIN_VALUE);
@@ -1090,12 +1150,20 @@ public class LWC {
 
             // flush all of the queries
             fullRemoveProtections(sender, toRemove);
+            physicalDatabase.getProtectionCounts().clear();
 
             if (shouldRemoveBlocks) {
                 removeBlocks(sender, removeBlocks);
             }
         } catch (SQLException e) {
             e.printStackTrace();
+        } finally {
+            if (scanConnection != null) {
+                try {
+                    scanConnection.close();
+                } catch (SQLException e) {
+                }
+            }
         }
 
         return completed;
@@ -1226,24 +1294,253 @@ public class LWC {
      * @return
      */
     public Protection findProtection(Block block, LWCPlayer debugger) {
+        // the same block is often looked up more than once in a tick
+        boolean memoize = debugger == null && protectionMemo != null && protectionMemo.isAvailable();
+
+        if (memoize) {
+            Object memo = protectionMemo.get(block);
+
+            if (memo != null) {
+                return memo == ProtectionMemo.NO_PROTECTION ? null : (Protection) memo;
+            }
+        }
+
+        Protection protection;
+
         // If the block type is AIR, then we have a problem .. but attempt to load a protection anyway
         if (block.getType() == Material.AIR) {
             // We won't be able to match any other blocks anyway, so the least we can do is attempt to load a protection
-            return physicalDatabase.loadProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+            protection = physicalDatabase.loadProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+        } else {
+            // Create a protection finder that loads the blocks around the block with one query
+            ProtectionFinder finder = new ProtectionFinder(this, true);
+
+            // Search for a protection
+            boolean result = finder.matchBlocks(block);
+
+            if (debugger != null) {
+                debugger.debug(String.format("finder.matchBlocks(%s): %s", block.toString(), Boolean.toString(result)));
+            }
+
+            // We're done, load the possibly loaded protection
+            protection = finder.loadProtection();
         }
 
-        // Create a protection finder
-        ProtectionFinder finder = new ProtectionFinder(this);
+        if (memoize) {
+            protectionMemo.put(block, protection);
+        }
 
-        // Search for a protection
-        boolean result = finder.matchBlocks(block);
+        return protection;
+    }
 
-        if (debugger != null) {
-            debugger.debug(String.format("finder.matchBlocks(%s): %s", block.toString(), Boolean.toString(result)));
+    /**
+     * Find the protections linked to many blocks in the same world at once, e.g the blocks destroyed by an explosion.
+     * Unless the cache already knows every protection around the blocks, every protection inside of the blocks'
+     * bounding box is loaded with one range query and the blocks are matched against them in memory.
+     *
+     * @param blocks
+     * @return the protections found, each one only once
+     */
+    public Set<Protection> findProtections(List<Block> blocks) {
+        Set<Protection> protections = new LinkedHashSet<Protection>();
+        List<Block> candidates = new ArrayList<Block>();
+
+        for (Block block : blocks) {
+            if (canHaveProtection(block)) {
+                candidates.add(block);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return protections;
+        }
+
+        World world = candidates.get(0).getWorld();
+        String worldName = world.getName();
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+        for (Block block : candidates) {
+            minX = Math.min(minX, block.getX());
+            minY = Math.min(minY, block.getY());
+            minZ = Math.min(minZ, block.getZ());
+            maxX = Math.max(maxX, block.getX());
+            maxY = Math.max(maxY, block.getY());
+            maxZ = Math.max(maxZ, block.getZ());
+        }
+
+        // include the blocks the matchers may look at around the edges
+        minX--;
+        minZ--;
+        maxX++;
+        maxZ++;
+        minY = Math.max(0, minY - 1);
+        maxY = Math.min(world.getMaxHeight() - 1, maxY + 2);
+
+        ProtectionRegion region = null;
+
+        List<Protection> inRegion = isRegionCached(worldName, minX, maxX, minZ, maxZ) ? null : physicalDatabase.loadProtectionRegion(worldName, minX, maxX, minY, maxY, minZ, maxZ);
+
+        // if the query failed, each block is looked up on its own instead
+        if (inRegion != null) {
+            List<Protection> loaded = new ArrayList<Protection>();
+
+            for (Protection protection : inRegion) {
+                // prefer the instance that is already in use as it may have changes that are not saved yet
+                Protection cached = protectionCache.getProtectionById(protection.getId());
+
+                if (cached != null) {
+                    protection = cached;
+                } else {
+                    protectionCache.add(protection);
+                }
+
+                loaded.add(protection);
+            }
+
+            region = new ProtectionRegion(worldName, minX, maxX, minY, maxY, minZ, maxZ, loaded);
+
+            // nothing in the box at all
+            if (region.size() == 0) {
+                return protections;
+            }
+        }
+
+        for (Block block : candidates) {
+            ProtectionFinder finder = new ProtectionFinder(this);
+            finder.setRegion(region);
+            finder.matchBlocks(block);
+
+            Protection protection = finder.loadProtection();
+
+            if (protection != null) {
+                protections.add(protection);
+            }
+        }
+
+        return protections;
+    }
+
+    /**
+     * Check if the cache knows every protection in an area, so blocks in it can be looked up without the database
+     *
+     * @param world
+     * @param minX
+     * @param maxX
+     * @param minZ
+     * @param maxZ
+     * @return
+     */
+    private boolean isRegionCached(String world, int minX, int maxX, int minZ, int maxZ) {
+        if (protectionCache.isResident()) {
+            return true;
+        }
+
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++) {
+                if (!protectionCache.getChunkIndex().isIndexed(world, chunkX << 4, chunkZ << 4)) {
+                    return false;
+                }
+            }
         }
 
-        // We're done, load the possibly loaded protection
-        return finder.loadProtection();
+        return true;
+    }
+
+    /**
+     * Find a protection linked to the block without waiting on the database. The blocks the matchers may look at are
+     * collected on the main thread without using the database, their protections are then loaded into the cache on
+     * the database executor, and the blocks are matched against the cache on the main thread.
+     *
+     * @param block
+     * @param callback called on the main thread in a later tick with the protection, or null if there is none. Never
+     *                 called before this returns. May be null
+     * @return the protection as it was loaded from the database, before it was checked against the world
+     */
+    public Future<Protection> findProtectionAsync(final Block block, final Callback<Protection> callback) {
+        final String world = block.getWorld().getName();
+        final boolean air = block.getType() == Material.AIR;
+        List<Block> candidates = air ? Collections.singletonList(block) : ProtectionFinder.getCandidates(this, block);
+
+        // the blocks may only be used on the main thread
+        final int[] coordinates = new int[candidates.size() * 3];
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Block candidate = candidates.get(i);
+            coordinates[i * 3] = candidate.getX();
+            coordinates[i * 3 + 1] = candidate.getY();
+            coordinates[i * 3 + 2] = candidate.getZ();
+        }
+
+        return databaseExecutor.submit(new Callable<Protection>() {
+            public Protection call() {
+                PhysDB database = getPhysicalDatabase();
+                Protection found = null;
+
+                // load every candidate, the matchers may need more than the first protection
+                for (int i = 0; i < coordinates.length; i += 3) {
+                    if (!protectionCache.getFilter().mightContain(world, coordinates[i], coordinates[i + 1], coordinates[i + 2])) {
+                        continue;
+                    }
+
+                    Protection protection = database.loadProtection(world, coordinates[i], coordinates[i + 1], coordinates[i + 2]);
+
+                    if (found == null) {
+                        found = protection;
+                    }
+                }
+
+                return found;
+            }
+        }, callback == null ? null : new Callback<Protection>() {
+            public void call(Protection loaded) {
+                Protection protection;
+
+                if (air) {
+                    protection = protectionCache.getProtection(world, block.getX(), block.getY(), block.getZ());
+                    boolean known = protection != null || protectionCache.isKnownNull(world, block.getX(), block.getY(), block.getZ());
+
+                    if (!known) {
+                        protection = findProtection(block);
+                    }
+                } else {
+                    ProtectionFinder finder = new ProtectionFinder(LWC.this);
+                    finder.setCacheOnly(true);
+                    finder.matchBlocks(block);
+                    protection = finder.loadProtection();
+
+                    // a block was evicted from the cache in the meantime, or was not collected
+                    if (finder.isIncomplete()) {
+                        protection = findProtection(block);
+                    }
+                }
+
+                callback.call(protection);
+            }
+        });
+    }
+
+    /**
+     * Load a protection by its id without waiting on the database. If the protection is cached the database is not
+     * used, but the callback is still called in a later tick, like it is when the protection had to be loaded.
+     *
+     * @param protectionId
+     * @param callback called on the main thread in a later tick with the protection, or null if it does not exist.
+     *                 Never called before this returns. May be null
+     * @return the protection
+     */
+    public Future<Protection> loadProtectionAsync(final int protectionId, Callback<Protection> callback) {
+        Protection cached = protectionCache.getProtectionById(protectionId);
+
+        if (cached != null) {
+            return databaseExecutor.complete(cached, callback);
+        }
+
+        return databaseExecutor.submit(new Callable<Protection>() {
+            public Protection call() {
+                return getPhysicalDatabase().loadProtection(protectionId);
+            }
+        }, callback);
     }
 
     /**
@@ -1378,7 +1675,104 @@ public class LWC {
      * @return
      */
     public boolean isProtectable(Material material) {
-        return Boolean.parseBoolean(resolveProtectionConfiguration(material, "enabled"));
+        return getProtectionConfiguration(material).isEnabled();
+    }
+
+    /**
+     * Get the ids of the block types that are protectable. The returned set must not be modified
+     *
+     * @return
+     */
+    public BitSet getProtectableMaterials() {
+        BitSet protectables = protectableMaterials;
+
+        if (protectables == null) {
+            compileProtectionConfiguration();
+            protectables = protectableMaterials;
+        }
+
+        return protectables;
+    }
+
+    /**
+     * Check if a protection could possibly be linked to the block, judging only by the block types around it.
+     * Used to skip blocks that can never be protected before doing any lookups
+     *
+     * @param block
+     * @return
+     */
+    public boolean canHaveProtection(Block block) {
+        return ProtectionFinder.canMatch(this, block);
+    }
+
+    /**
+     * Get the resolved protection configuration for the block (protections.block)
+     *
+     * @param material
+     * @return
+     */
+    public BlockProtectionConfig getProtectionConfiguration(Material material) {
+        Map<Material, BlockProtectionConfig> compiled = protectionConfiguration;
+
+        if (compiled == null) {
+            compiled = compileProtectionConfiguration();
+        }
+
+        return compiled.get(material);
+    }
+
+    /**
+     * Resolve the protection configuration of every block type. Must be done again when the configuration changes.
+     *
+     * @return the resolved configuration
+     */
+    public Map<Material, BlockProtectionConfig> compileProtectionConfiguration() {
+        Map<Material, BlockProtectionConfig> compiled = new EnumMap<Material, BlockProtectionConfig>(Material.class);
+        Set<String> nodes = new HashSet<String>();
+        List<String> defaults = configuration.getKeys("protections");
+        List<String> blocks = configuration.getKeys("protections.blocks");
+
+        // every node that is set anywhere, a node that is not set resolves to null for every block anyway
+        if (defaults != null) {
+            for (Object node : defaults) {
+                nodes.add(node.toString());
+            }
+
+            nodes.remove("blocks");
+        }
+
+        if (blocks != null) {
+            for (Object block : blocks) {
+                List<String> blockNodes = configuration.getKeys("protections.blocks." + block);
+
+                if (blockNodes != null) {
+                    for (Object node : blockNodes) {
+                        nodes.add(node.toString());
+                    }
+                }
+            }
+        }
+
+        BitSet protectables = new BitSet();
+
+        for (Material material : Material.values()) {
+            Map<String, String> values = new HashMap<String, String>();
+
+            for (String node : nodes) {
+                values.put(node, lookupProtectionConfiguration(material, node));
+            }
+
+            BlockProtectionConfig config = new BlockProtectionConfig(values);
+            compiled.put(material, config);
+
+            if (config.isEnabled()) {
+                protectables.set(material.getId());
+            }
+        }
+
+        protectableMaterials = protectables;
+        protectionConfiguration = compiled;
+        return compiled;
     }
 
     /**
@@ -1389,6 +1783,17 @@ public class LWC {
      * @return
      */
     public String resolveProtectionConfiguration(Material material, String node) {
+        return getProtectionConfiguration(material).get(node);
+    }
+
+    /**
+     * Get the appropriate config value for the block (protections.block.node) from the configuration
+     *
+     * @param material
+     * @param node
+     * @return
+     */
+    private String lookupProtectionConfiguration(Material material, String node) {
         List<String> names = new ArrayList<String>();
 
         String materialName = normalizeName(material);
@@ -1423,15 +1828,17 @@ public class LWC {
 
         // check for upgrade before everything else
         new ConfigPost300().run();
+        compileProtectionConfiguration();
         plugin.loadDatabase();
 
         Statistics.init();
 
         physicalDatabase = new PhysDB();
         databaseThread = new DatabaseThread(this);
+        databaseExecutor = new DatabaseExecutor(this);
 
         // Permissions init
-        permissions = new NoPermissions();
+        IPermissions handler = new NoPermissions();
 
         // Default to Permissions, except with SuperpermsBridge
         Plugin legacy = resolvePlugin("Permissions");
@@ -1439,24 +1846,24 @@ public class LWC {
             try {
                 // super perms bridge, will throw exception if it's not it
                 if (!(((com.nijikokun.bukkit.Permissions.Permissions)legacy).getHandler() instanceof com.platymuus.bukkit.permcompat.PermissionHandler)) {
-                    permissions = new NijiPermissions();
+                    handler = new NijiPermissions();
                 }
             } catch (NoClassDefFoundError e) {
                 // Permissions 2/3 or some other bridge
-                permissions = new NijiPermissions();
+                handler = new NijiPermissions();
             }
         }
 
-        if(permissions.getClass() == NoPermissions.class) {
+        if(handler.getClass() == NoPermissions.class) {
             if (resolvePlugin("PermissionsBukkit") != null) {
-                permissions = new BukkitPermissions();
+                handler = new BukkitPermissions();
             } else if (resolvePlugin("PermissionsEx") != null) {
-                permissions = new PEXPermissions();
+                handler = new PEXPermissions();
             } else {
                 try {
                     Method method = CraftHumanEntity.class.getDeclaredMethod("hasPermission", String.class);
                     if (method != null) {
-                        permissions = new SuperPermsPermissions();
+                        handler = new SuperPermsPermissions();
                     }
                 } catch(NoSuchMethodException e) {
                     // server does not support SuperPerms
@@ -1464,6 +1871,9 @@ public class LWC {
             }
         }
 
+        // remember the groups and nodes of players for a short while
+        permissions = new CachedPermissions(handler);
+
         // Currency init
         currency = new NoCurrency();
 
@@ -1490,7 +1900,7 @@ public class LWC {
             currency = new EssentialsCurrency();
         }
 
-        log("Permissions API: " + Colors.Red + permissions.getClass().getSimpleName());
+        log("Permissions API: " + Colors.Red + permissions.getParent().getClass().getSimpleName());
         log("Currency API: " + Colors.Red + currency.getClass().getSimpleName());
 
         log("Connecting to " + Database.DefaultType);
@@ -1510,8 +1920,20 @@ public class LWC {
         // check any major conversions
         new MySQLPost200().run();
 
-        // precache protections
-        physicalDatabase.precache();
+        // warm the cache with the protections used the most before the last restart, or precache protections
+        if (!new CacheSnapshot(this).preload()) {
+            physicalDatabase.precache();
+        }
+
+        // index the protections in loaded chunks
+        protectionCache.getChunkIndex().start();
+
+        // and build the filter of every protected block
+        protectionCache.getFilter().start();
+
+        // remember the protections found during each tick
+        protectionMemo = new ProtectionMemo(this);
+        protectionMemo.start();
 
         // We are now done loading!
         moduleLoader.loadAll();
@@ -1538,6 +1960,18 @@ public class LWC {
      * Register the core modules for LWC
      */
     private void registerCoreModules() {
+        // resolve the protection configuration again when the configuration is reloaded
+        registerModule(new JavaModule() {
+            @Override
+            public void onReload(LWCReloadEvent event) {
+                compileProtectionConfiguration();
+
+                if (permissions != null) {
+                    permissions.reload();
+                }
+            }
+        });
+
         // core
         registerModule(new LimitsV2());
         registerModule(new LimitsModule());
@@ -1776,6 +2210,24 @@ public class LWC {
         }
     }
 
+    /**
+     * Forget everything that is known about the protections table, after it was written to without going through
+     * LWC (e.g by /lwc admin query). Queued changes are written first, then the cache is loaded again and the
+     * protection filter is rebuilt, so no block is left looking unprotected.
+     */
+    public void reloadProtections() {
+        databaseThread.flushNow();
+        physicalDatabase.getProtectionCounts().clear();
+
+        // a resident cache is loaded again straight away, a normal cache is emptied and warmed in the background
+        physicalDatabase.precache();
+        protectionCache.getFilter().rebuild();
+
+        if (protectionMemo != null) {
+            protectionMemo.invalidate();
+        }
+    }
+
     /**
      * Reload the database
      */
@@ -1889,6 +2341,13 @@ public class LWC {
         return permissions;
     }
 
+    /**
+     * @return the cache in front of the Permissions handler
+     */
+    public CachedPermissions getPermissionCache() {
+        return permissions;
+    }
+
     /**
      * @return physical database object
      */
@@ -1903,6 +2362,13 @@ public class LWC {
         return plugin;
     }
 
+    /**
+     * @return the memo of protections found during the current tick
+     */
+    public ProtectionMemo getProtectionMemo() {
+        return protectionMemo;
+    }
+
     /**
      * @return the protection cache
      */
@@ -1917,6 +2383,13 @@ public class LWC {
         return databaseThread;
     }
 
+    /**
+     * @return the executor for lookups that are not needed right away
+     */
+    public DatabaseExecutor getDatabaseExecutor() {
+        return databaseExecutor;
+    }
+
     /**
      * @return the plugin version
      */
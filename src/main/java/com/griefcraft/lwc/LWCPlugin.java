@@ -32,6 +32,7 @@ import com.griefcraft.listeners.LWCBlockListener;
 import com.griefcraft.listeners.LWCEntityListener;
 import com.griefcraft.listeners.LWCPlayerListener;
 import com.griefcraft.listeners.LWCServerListener;
+import com.griefcraft.listeners.LWCWorldListener;
 import com.griefcraft.scripting.event.LWCCommandEvent;
 import com.griefcraft.sql.Database;
 import com.griefcraft.util.StopWatch;
@@ -51,6 +52,7 @@ import org.bukkit.event.block.BlockListener;
 import org.bukkit.event.entity.EntityListener;
 import org.bukkit.event.player.PlayerListener;
 import org.bukkit.event.server.ServerListener;
+import org.bukkit.event.world.WorldListener;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
@@ -90,6 +92,11 @@ public class LWCPlugin extends JavaPlugin {
      */
     private ServerListener serverListener;
 
+    /**
+     * The world listener
+     */
+    private WorldListener worldListener;
+
     /**
      * The locale for LWC
      */
@@ -350,6 +357,7 @@ public class LWCPlugin extends JavaPlugin {
         blockListener = new LWCBlockListener(this);
         entityListener = new LWCEntityListener(this);
         serverListener = new LWCServerListener(this);
+        worldListener = new LWCWorldListener(this);
 
         // Set the SQLite native library path
         System.setProperty("org.sqlite.lib.path", updater.getOSSpecificFolder());
@@ -399,6 +407,11 @@ public class LWCPlugin extends JavaPlugin {
         /* Server events */
         registerEvent(serverListener, Type.PLUGIN_DISABLE);
 
+        /* World events */
+        registerEvent(worldListener, Type.CHUNK_LOAD, Priority.Monitor);
+        registerEvent(worldListener, Type.CHUNK_UNLOAD, Priority.Monitor);
+        registerEvent(worldListener, Type.WORLD_UNLOAD, Priority.Monitor);
+
         // post-1.7 event
         registerEvent(blockListener, Type.BLOCK_PISTON_EXTEND);
         registerEvent(blockListener, Type.BLOCK_PISTON_RETRACT);
@@ -429,6 +429,9 @@ public class LWCPlayer implements CommandSender {
         if (!devMode) {
             this.permissionMode = PermissionMode.NONE;
         }
+
+        // permission checks depend on the dev mode
+        lwc.getPermissionCache().invalidate(player);
     }
 
     /**
@@ -456,6 +459,7 @@ public class LWCPlayer implements CommandSender {
      */
     public void setPermissionMode(PermissionMode permissionMode) {
         this.permissionMode = permissionMode;
+        lwc.getPermissionCache().invalidate(player);
     }
 
     /**
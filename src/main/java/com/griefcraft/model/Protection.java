@@ -28,8 +28,10 @@
 
 package com.griefcraft.model;
 
+import com.griefcraft.cache.ProtectionCountCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.event.LWCProtectionRemovePostEvent;
+import com.griefcraft.sql.DataCodec;
 import com.griefcraft.util.Colors;
 import com.griefcraft.util.ProtectionFinder;
 import com.griefcraft.util.StringUtil;
@@ -41,12 +43,17 @@ import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class Protection {
@@ -115,6 +122,42 @@ public class Protection {
 
     }
 
+    /**
+     * The columns of a protection in the database. Changes are tracked per column so only the columns
+     * that changed have to be written.
+     */
+    public enum Column {
+
+        TYPE("type"),
+        BLOCK_ID("blockId"),
+        WORLD("world"),
+        DATA("data"),
+        OWNER("owner"),
+        PASSWORD("password"),
+        X("x"),
+        Y("y"),
+        Z("z"),
+        CREATION("date"),
+        LAST_ACCESSED("last_accessed");
+
+        /**
+         * The name of the column in the database
+         */
+        private final String columnName;
+
+        Column(String columnName) {
+            this.columnName = columnName;
+        }
+
+        /**
+         * @return the name of the column in the database
+         */
+        public String getColumnName() {
+            return columnName;
+        }
+
+    }
+
     /**
      * All of the history items associated with this protection
      */
@@ -125,6 +168,12 @@ public class Protection {
      */
     private final Set<Permission> permissions = new HashSet<Permission>();
 
+    /**
+     * The permissions indexed for access checks. Built when first needed and thrown away whenever the
+     * permissions change.
+     */
+    private volatile PermissionIndex permissionIndex;
+
     /**
      * List of flags enabled on the protection
      */
@@ -145,6 +194,23 @@ public class Protection {
      */
     private final JSONObject data = new JSONObject();
 
+    /**
+     * The data column as it was loaded from the database. It is only decoded into the permissions and flags
+     * when they are first used, since most protections are only ever checked for their owner and type.
+     * Null once it has been decoded.
+     */
+    private volatile String encodedData;
+
+    /**
+     * The JSON parser used to decode the data column. Parsers can not be shared between threads.
+     */
+    private static final ThreadLocal<JSONParser> jsonParser = new ThreadLocal<JSONParser>() {
+        @Override
+        protected JSONParser initialValue() {
+            return new JSONParser();
+        }
+    };
+
     /**
      * Unique id (in sql)
      */
@@ -202,9 +268,9 @@ public class Protection {
     private boolean removing = false;
 
     /**
-     * True when the protection has been modified and should be saved
+     * The columns that were modified since the protection was last saved
      */
-    private boolean modified = false;
+    private final Set<Column> dirty = EnumSet.noneOf(Column.class);
 
     /**
      * The protection finder used to find this protection
@@ -249,6 +315,8 @@ public class Protection {
      * @return
      */
     public void encodeRights() {
+        decodeData();
+
         // create the root
         JSONArray root = new JSONArray();
 
@@ -266,6 +334,7 @@ public class Protection {
      * Encode the protection flags to JSON
      */
     public void encodeFlags() {
+        decodeData();
         JSONArray root = new JSONArray();
 
         for (Flag flag : flags) {
@@ -277,6 +346,98 @@ public class Protection {
         data.put("flags", root);
     }
 
+    /**
+     * Set the data column as it was loaded from the database. It is decoded the first time the permissions or
+     * flags are used.
+     *
+     * @param encodedData
+     */
+    public void setEncodedData(String encodedData) {
+        this.encodedData = encodedData;
+    }
+
+    /**
+     * Copy decoded values into the data of the protection. JSONObject is a raw HashMap, so this can not be checked.
+     *
+     * @param values
+     */
+    @SuppressWarnings("unchecked")
+    private void putData(Map<?, ?> values) {
+        data.putAll(values);
+    }
+
+    /**
+     * Decode the data column into the permissions and flags, if that was not done yet
+     */
+    private void decodeData() {
+        if (encodedData == null) {
+            return;
+        }
+
+        synchronized (data) {
+            String encoded = encodedData;
+
+            // decoded by another thread while we were waiting
+            if (encoded == null) {
+                return;
+            }
+
+            // rev up them JSON parsers!
+            Object object = null;
+
+            try {
+                object = DataCodec.isCompact(encoded) ? DataCodec.decode(encoded) : jsonParser.get().parse(encoded);
+            } catch (Exception e) {
+            } catch (Error e) {
+            }
+
+            if (object instanceof JSONObject) {
+                // obtain the root
+                JSONObject root = (JSONObject) object;
+                putData(root);
+
+                // Attempt to parse rights
+                Object rights = root.get("rights");
+
+                if (rights instanceof JSONArray) {
+                    for (Object node : (JSONArray) rights) {
+                        // we only want to use the maps
+                        if (!(node instanceof JSONObject)) {
+                            continue;
+                        }
+
+                        // decode the map
+                        Permission permission = Permission.decodeJSON((JSONObject) node);
+
+                        // bingo!
+                        if (permission != null) {
+                            putPermission(permission);
+                        }
+                    }
+                }
+
+                // Attempt to parse flags
+                Object flags = root.get("flags");
+
+                if (flags instanceof JSONArray) {
+                    for (Object node : (JSONArray) flags) {
+                        if (!(node instanceof JSONObject)) {
+                            continue;
+                        }
+
+                        Flag flag = Flag.decodeJSON((JSONObject) node);
+
+                        if (flag != null) {
+                            this.flags.add(flag);
+                        }
+                    }
+                }
+            }
+
+            encodedData = null;
+        }
+    }
+
     /**
      * Ensure a history object is located in our cache
      *
@@ -360,6 +521,8 @@ public class Protection {
      * @return
      */
     public boolean hasFlag(Flag.Type type) {
+        decodeData();
+
         for (Flag flag : flags) {
             if (flag.getType() == type) {
                 return true;
@@ -376,6 +539,8 @@ public class Protection {
      * @return
      */
     public Flag getFlag(Flag.Type type) {
+        decodeData();
+
         for (Flag flag : flags) {
             if (flag.getType() == type) {
                 return flag;
@@ -396,9 +561,11 @@ public class Protection {
             return false;
         }
 
+        decodeData();
+
         if (!flags.contains(flag)) {
             flags.add(flag);
-            modified = true;
+            markDirty(Column.DATA);
             return true;
         }
 
@@ -416,8 +583,9 @@ public class Protection {
             return;
         }
 
+        decodeData();
         flags.remove(flag);
-        this.modified = true;
+        markDirty(Column.DATA);
     }
 
     /**
@@ -428,19 +596,88 @@ public class Protection {
      * @return the permissions the player has
      */
     public Permission.Access getAccess(String name, Permission.Type type) {
-        for (Permission permission : permissions) {
-            if (permission.getType() == type && permission.getName().equalsIgnoreCase(name)) {
-                return permission.getAccess();
+        Permission.Access access = getPermissionIndex().access.get(type).get(name.toLowerCase());
+        return access != null ? access : Permission.Access.NONE;
+    }
+
+    /**
+     * Check if an item is a key for the protection, i.e holding it gives access
+     *
+     * @param itemId
+     * @return true if the protection has an ITEM permission for the item
+     */
+    public boolean isItemKey(int itemId) {
+        return getPermissionIndex().items.contains(itemId);
+    }
+
+    /**
+     * Get the permission index, building it if the permissions changed since it was last used
+     *
+     * @return
+     */
+    private PermissionIndex getPermissionIndex() {
+        PermissionIndex index = permissionIndex;
+
+        if (index == null) {
+            decodeData();
+            index = new PermissionIndex(permissions);
+            permissionIndex = index;
+        }
+
+        return index;
+    }
+
+    /**
+     * The permissions of a protection indexed by type and lower case name, so access checks do not have to go
+     * through every permission
+     */
+    private static class PermissionIndex {
+
+        /**
+         * The access given to each lower case name, for each permission type
+         */
+        private final Map<Permission.Type, Map<String, Permission.Access>> access = new EnumMap<Permission.Type, Map<String, Permission.Access>>(Permission.Type.class);
+
+        /**
+         * The ids of the items that are keys for the protection
+         */
+        private final Set<Integer> items = new HashSet<Integer>();
+
+        public PermissionIndex(Set<Permission> permissions) {
+            for (Permission.Type type : Permission.Type.values()) {
+                access.put(type, new HashMap<String, Permission.Access>());
+            }
+
+            for (Permission permission : permissions) {
+                if (permission.getType() == null || permission.getName() == null) {
+                    continue;
+                }
+
+                Map<String, Permission.Access> names = access.get(permission.getType());
+                String name = permission.getName().toLowerCase();
+                Permission.Access existing = names.get(name);
+
+                // if names only differ in case, the highest access wins
+                if (existing == null || permission.getAccess().ordinal() > existing.ordinal()) {
+                    names.put(name, permission.getAccess());
+                }
+
+                if (permission.getType() == Permission.Type.ITEM) {
+                    try {
+                        items.add(Integer.parseInt(permission.getName()));
+                    } catch (NumberFormatException e) {
+                    }
+                }
             }
         }
 
-        return Permission.Access.NONE;
     }
 
     /**
      * @return the list of permissions
      */
     public List<Permission> getPermissions() {
+        decodeData();
         return Collections.unmodifiableList(new ArrayList<Permission>(permissions));
     }
 
@@ -448,6 +685,11 @@ public class Protection {
      * Remove temporary permissions rights from the protection
      */
     public void removeTemporaryPermissions() {
+        // temporary permissions are never saved, so there can't be any if the permissions were not used yet
+        if (encodedData != null) {
+            return;
+        }
+
         Iterator<Permission> iter = permissions.iterator();
 
         while (iter.hasNext()) {
@@ -455,6 +697,7 @@ public class Protection {
             
             if (permission.isVolatile()) {
                 iter.remove();
+                permissionIndex = null;
             }
         }
     }
@@ -469,12 +712,29 @@ public class Protection {
             return;
         }
 
-        // remove any other rights with the same identity
-        removePermissions(permission.getName(), permission.getType());
+        decodeData();
+        putPermission(permission);
+        markDirty(Column.DATA);
+    }
+
+    /**
+     * Add a permission, replacing any other permission with the same identity
+     *
+     * @param permission
+     */
+    private void putPermission(Permission permission) {
+        Iterator<Permission> iter = permissions.iterator();
+
+        while (iter.hasNext()) {
+            Permission other = iter.next();
+
+            if (other.getName().equals(permission.getName()) && other.getType() == permission.getType()) {
+                iter.remove();
+            }
+        }
 
-        // now we can safely add it
         permissions.add(permission);
-        modified = true;
+        permissionIndex = null;
     }
 
     /**
@@ -488,6 +748,7 @@ public class Protection {
             return;
         }
 
+        decodeData();
         Iterator<Permission> iter = permissions.iterator();
 
         while (iter.hasNext()) {
@@ -495,7 +756,8 @@ public class Protection {
 
             if ((permission.getName().equals(name) || name.equals("*")) && permission.getType() == type) {
                 iter.remove();
-                modified = true;
+                permissionIndex = null;
+                markDirty(Column.DATA);
             }
         }
     }
@@ -504,8 +766,10 @@ public class Protection {
      * Remove all of the permissions
      */
     public void removeAllPermissions() {
+        decodeData();
         permissions.clear();
-        modified = true;
+        permissionIndex = null;
+        markDirty(Column.DATA);
     }
 
     /**
@@ -528,6 +792,7 @@ public class Protection {
     }
 
     public JSONObject getData() {
+        decodeData();
         return data;
     }
 
@@ -580,8 +845,15 @@ public class Protection {
             return;
         }
 
+        // the block changed, so move it to its new block id in the owner's counts
+        if (owner != null && this.blockId != blockId) {
+            ProtectionCountCache counts = LWC.getInstance().getPhysicalDatabase().getProtectionCounts();
+            counts.decrement(owner, this.blockId);
+            counts.increment(owner, blockId);
+        }
+
         this.blockId = blockId;
-        this.modified = true;
+        markDirty(Column.BLOCK_ID);
     }
 
     public void setPassword(String password) {
@@ -590,7 +862,7 @@ public class Protection {
         }
 
         this.password = password;
-        this.modified = true;
+        markDirty(Column.PASSWORD);
     }
 
     public void setCreation(String creation) {
@@ -599,7 +871,7 @@ public class Protection {
         }
 
         this.creation = creation;
-        this.modified = true;
+        markDirty(Column.CREATION);
     }
 
     public void setId(int id) {
@@ -608,7 +880,6 @@ public class Protection {
         }
 
         this.id = id;
-        this.modified = true;
     }
 
     public void setOwner(String owner) {
@@ -616,8 +887,15 @@ public class Protection {
             return;
         }
 
+        // given to another player, so move it to their counts
+        if (this.owner != null && !this.owner.equals(owner)) {
+            ProtectionCountCache counts = LWC.getInstance().getPhysicalDatabase().getProtectionCounts();
+            counts.decrement(this.owner, blockId);
+            counts.increment(owner, blockId);
+        }
+
         this.owner = owner;
-        this.modified = true;
+        markDirty(Column.OWNER);
     }
 
     public void setType(Type type) {
@@ -626,7 +904,7 @@ public class Protection {
         }
 
         this.type = type;
-        this.modified = true;
+        markDirty(Column.TYPE);
     }
 
     public void setWorld(String world) {
@@ -635,7 +913,7 @@ public class Protection {
         }
 
         this.world = world;
-        this.modified = true;
+        markDirty(Column.WORLD);
     }
 
     public void setX(int x) {
@@ -644,7 +922,7 @@ public class Protection {
         }
 
         this.x = x;
-        this.modified = true;
+        markDirty(Column.X);
     }
 
     public void setY(int y) {
@@ -653,7 +931,7 @@ public class Protection {
         }
 
         this.y = y;
-        this.modified = true;
+        markDirty(Column.Y);
     }
 
     public void setZ(int z) {
@@ -662,7 +940,7 @@ public class Protection {
         }
 
         this.z = z;
-        this.modified = true;
+        markDirty(Column.Z);
     }
 
     public void setLastAccessed(long lastAccessed) {
@@ -671,7 +949,22 @@ public class Protection {
         }
 
         this.lastAccessed = lastAccessed;
-        this.modified = true;
+        markDirty(Column.LAST_ACCESSED);
+    }
+
+    /**
+     * Record that the protection was accessed. Only the timestamp is queued to be written to the database,
+     * the rest of the protection is not saved.
+     *
+     * @param lastAccessed
+     */
+    public void updateLastAccessed(long lastAccessed) {
+        if (removed) {
+            return;
+        }
+
+        this.lastAccessed = lastAccessed;
+        LWC.getInstance().getDatabaseThread().addAccess(id, lastAccessed);
     }
 
     /**
@@ -704,7 +997,7 @@ public class Protection {
         removeTemporaryPermissions();
 
         // we're removing it, so assume there are no changes
-        modified = false;
+        markClean();
         removing = true;
 
         // broadcast the removal event
@@ -728,7 +1021,15 @@ public class Protection {
 
         // and now finally remove it from the database
         lwc.getDatabaseThread().removeProtection(this);
-        lwc.getPhysicalDatabase().removeProtection(id);
+        lwc.getPhysicalDatabase().getProtectionCounts().decrement(owner, blockId);
+
+        if (lwc.getProtectionCache().isResident()) {
+            // nothing reads it from the database, so it can be removed with the next flush
+            lwc.getDatabaseThread().addRemoval(id);
+        } else {
+            lwc.getPhysicalDatabase().removeProtection(id);
+        }
+
         removeCache();
     }
 
@@ -738,6 +1039,11 @@ public class Protection {
     public void removeCache() {
         LWC lwc = LWC.getInstance();
         lwc.getProtectionCache().remove(this);
+
+        // the block may have been found during this tick
+        if (lwc.getProtectionMemo() != null) {
+            lwc.getProtectionMemo().invalidate();
+        }
     }
 
     /**
@@ -759,19 +1065,84 @@ public class Protection {
             return;
         }
 
-        // encode JSON objects
-        encodeRights();
-        encodeFlags();
+        // only save the columns that were modified
+        Set<Column> columns = prepareSave();
 
-        // only save the protection if it was modified
-        if (modified && !removing) {
-            LWC.getInstance().getPhysicalDatabase().saveProtection(this);
+        if (!columns.isEmpty()) {
+            LWC.getInstance().getPhysicalDatabase().saveProtection(this, columns);
         }
 
         // check the cache for history updates
         checkAndSaveHistory();
     }
 
+    /**
+     * Take the columns that were modified since the protection was last saved and encode the protection so they can
+     * be written to the database. The protection is considered saved afterwards; if writing it fails the columns
+     * should be given back using {@link #markDirty(java.util.Set)}.
+     *
+     * @return the columns that should be written to the database, which is empty if there is nothing to write
+     */
+    public Set<Column> prepareSave() {
+        Set<Column> columns;
+
+        synchronized (dirty) {
+            if (removed || removing || dirty.isEmpty()) {
+                return EnumSet.noneOf(Column.class);
+            }
+
+            columns = EnumSet.copyOf(dirty);
+            dirty.clear();
+        }
+
+        // the JSON is only encoded again if the rights or flags changed
+        if (columns.contains(Column.DATA)) {
+            encodeRights();
+            encodeFlags();
+        }
+
+        return columns;
+    }
+
+    /**
+     * Mark a column as modified so it is written the next time the protection is saved
+     *
+     * @param column
+     */
+    private void markDirty(Column column) {
+        synchronized (dirty) {
+            dirty.add(column);
+        }
+    }
+
+    /**
+     * Mark columns as modified so they are written the next time the protection is saved
+     *
+     * @param columns
+     */
+    public void markDirty(Set<Column> columns) {
+        synchronized (dirty) {
+            dirty.addAll(columns);
+        }
+    }
+
+    /**
+     * Mark every column as modified, so the whole protection is written the next time it is saved. Used when the
+     * protection is copied to a database it did not come from.
+     */
+    public void markAllDirty() {
+        markDirty(EnumSet.allOf(Column.class));
+    }
+
+    /**
+     * Mark the protection as unmodified, e.g when it was just loaded from the database
+     */
+    public void markClean() {
+        synchronized (dirty) {
+            dirty.clear();
+        }
+    }
+
     /**
      * Saves any of the history items for the Protection that have been modified
      */
@@ -833,6 +1204,7 @@ public class Protection {
     public String toString() {
         // format the flags prettily
         String flagStr = "";
+        decodeData();
 
         for (Flag flag : flags) {
             flagStr += flag.toString() + ",";
@@ -0,0 +1,479 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.sql;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding for the data column of protections. Any JSON value can be encoded; numbers are stored as
+ * varints, every value has a one byte type tag and each distinct string is only stored once. The keys every protection
+ * uses (e.g "name" or "rights") are not stored at all.
+ *
+ * <p>The binary form is stored as text so it fits in the existing column: a {@link #PREFIX} followed by the bytes in
+ * base64. JSON can never start with the prefix, so both formats can be told apart when reading. Base64 makes the bytes
+ * a third larger, but the text is still 30-40% shorter than the JSON of typical protections: e.g a protection shared
+ * with two players and a group, with one flag, takes 105 characters instead of 154.</p>
+ */
+public final class DataCodec {
+
+    /**
+     * Marks a value as compact encoded
+     */
+    public static final char PREFIX = '~';
+
+    /**
+     * The current version of the encoding, stored as the first byte
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Strings that are used by nearly every protection and are therefore never stored, they are referred to by their
+     * index in the string table. <b>Must NOT change</b> without changing the version.
+     */
+    private static final String[] DICTIONARY = { "rights", "flags", "name", "type", "id" };
+
+    /**
+     * The type tags
+     */
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_ARRAY = 6;
+    private static final int TAG_OBJECT = 7;
+
+    /**
+     * The base64 alphabet
+     */
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * The value of each base64 character, -1 if it is not one
+     */
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_VALUES.length; i++) {
+            BASE64_VALUES[i] = -1;
+        }
+
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+    }
+
+    private DataCodec() {
+    }
+
+    /**
+     * Check if the given value is compact encoded
+     *
+     * @param encoded
+     * @return true if the value is compact encoded, false if it is JSON (or empty)
+     */
+    public static boolean isCompact(String encoded) {
+        return encoded != null && encoded.length() > 0 && encoded.charAt(0) == PREFIX;
+    }
+
+    /**
+     * Encode a JSON object using the compact encoding
+     *
+     * @param object
+     * @return
+     */
+    public static String encode(JSONObject object) {
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (String string : DICTIONARY) {
+            intern(string, strings);
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeValue(body, object, strings);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 16 * strings.size());
+        out.write(VERSION);
+
+        // the interned strings, apart from the ones in the dictionary
+        writeVarInt(out, strings.size() - DICTIONARY.length);
+        int index = 0;
+        for (String string : strings.keySet()) {
+            if (index++ < DICTIONARY.length) {
+                continue;
+            }
+
+            byte[] bytes = toBytes(string);
+            writeVarInt(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        byte[] bytes = body.toByteArray();
+        out.write(bytes, 0, bytes.length);
+
+        return PREFIX + toBase64(out.toByteArray());
+    }
+
+    /**
+     * Decode a compact encoded value. Values in JSON are decoded the same as json-simple would,
+     * i.e integers become Longs.
+     *
+     * @param encoded
+     * @return
+     * @throws IllegalArgumentException if the value is not valid
+     */
+    public static JSONObject decode(String encoded) {
+        if (!isCompact(encoded)) {
+            throw new IllegalArgumentException("Value is not compact encoded");
+        }
+
+        Reader reader = new Reader(fromBase64(encoded, 1));
+        int version = reader.readByte();
+
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported compact encoding version: " + version);
+        }
+
+        // the interned strings, which follow the dictionary
+        int count = reader.readVarInt();
+        List<String> strings = new ArrayList<String>(DICTIONARY.length + count);
+        strings.addAll(Arrays.asList(DICTIONARY));
+        for (int i = 0; i < count; i++) {
+            strings.add(reader.readString(reader.readVarInt()));
+        }
+
+        Object value = reader.readValue(strings);
+
+        if (!(value instanceof JSONObject)) {
+            throw new IllegalArgumentException("Compact encoded value is not an object");
+        }
+
+        return (JSONObject) value;
+    }
+
+    /**
+     * Write a value
+     *
+     * @param out
+     * @param value
+     * @param strings
+     */
+    private static void writeValue(ByteArrayOutputStream out, Object value, Map<String, Integer> strings) {
+        if (value == null) {
+            out.write(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            long number = ((Number) value).longValue();
+            out.write(TAG_INTEGER);
+            writeVarLong(out, (number << 1) ^ (number >> 63)); // zigzag, so small negative numbers stay small
+        } else if (value instanceof Number) {
+            long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            out.write(TAG_DOUBLE);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift) & 0xFF);
+            }
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.write(TAG_OBJECT);
+            writeVarInt(out, map.size());
+
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeVarInt(out, intern(String.valueOf(entry.getKey()), strings));
+                writeValue(out, entry.getValue(), strings);
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.write(TAG_ARRAY);
+            writeVarInt(out, list.size());
+
+            for (Object element : list) {
+                writeValue(out, element, strings);
+            }
+        } else {
+            out.write(TAG_STRING);
+            writeVarInt(out, intern(value.toString(), strings));
+        }
+    }
+
+    /**
+     * Get the index of a string in the string table, adding it if needed
+     *
+     * @param string
+     * @param strings
+     * @return
+     */
+    private static int intern(String string, Map<String, Integer> strings) {
+        Integer index = strings.get(string);
+
+        if (index == null) {
+            index = strings.size();
+            strings.put(string, index);
+        }
+
+        return index;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    private static byte[] toBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encode bytes in base64
+     *
+     * @param bytes
+     * @return
+     */
+    private static String toBase64(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length + 2) / 3 * 4);
+
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b0 = bytes[i] & 0xFF;
+            int b1 = i + 1 < bytes.length ? bytes[i + 1] & 0xFF : 0;
+            int b2 = i + 2 < bytes.length ? bytes[i + 2] & 0xFF : 0;
+
+            builder.append(BASE64[b0 >> 2]);
+            builder.append(BASE64[((b0 & 0x03) << 4) | (b1 >> 4)]);
+            builder.append(i + 1 < bytes.length ? BASE64[((b1 & 0x0F) << 2) | (b2 >> 6)] : '=');
+            builder.append(i + 2 < bytes.length ? BASE64[b2 & 0x3F] : '=');
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Decode base64 text
+     *
+     * @param text
+     * @param offset the index of the first base64 character
+     * @return
+     */
+    private static byte[] fromBase64(String text, int offset) {
+        int length = text.length() - offset;
+
+        if (length % 4 != 0) {
+            throw new IllegalArgumentException("Invalid base64 length");
+        }
+
+        int padding = 0;
+        if (length > 0 && text.charAt(text.length() - 1) == '=') {
+            padding++;
+
+            if (text.charAt(text.length() - 2) == '=') {
+                padding++;
+            }
+        }
+
+        byte[] bytes = new byte[length / 4 * 3 - padding];
+        int index = 0;
+
+        for (int i = offset; i < text.length(); i += 4) {
+            int c0 = base64Value(text.charAt(i));
+            int c1 = base64Value(text.charAt(i + 1));
+            int c2 = text.charAt(i + 2) == '=' ? 0 : base64Value(text.charAt(i + 2));
+            int c3 = text.charAt(i + 3) == '=' ? 0 : base64Value(text.charAt(i + 3));
+            int triple = (c0 << 18) | (c1 << 12) | (c2 << 6) | c3;
+
+            bytes[index++] = (byte) (triple >> 16);
+
+            if (index < bytes.length) {
+                bytes[index++] = (byte) (triple >> 8);
+            }
+
+            if (index < bytes.length) {
+                bytes[index++] = (byte) triple;
+            }
+        }
+
+        return bytes;
+    }
+
+    private static int base64Value(char c) {
+        int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+
+        if (value == -1) {
+            throw new IllegalArgumentException("Invalid base64 character: " + c);
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads values from the decoded bytes
+     */
+    private static class Reader {
+
+        private final byte[] bytes;
+
+        private int position = 0;
+
+        public Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("Unexpected end of compact encoded value");
+            }
+
+            return bytes[position++] & 0xFF;
+        }
+
+        public int readVarInt() {
+            long value = readVarLong();
+
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Varint out of range");
+            }
+
+            return (int) value;
+        }
+
+        public long readVarLong() {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        public String readString(int length) {
+            if (length < 0 || position + length > bytes.length) {
+                throw new IllegalArgumentException("Unexpected end of compact encoded value");
+            }
+
+            try {
+                String string = new String(bytes, position, length, "UTF-8");
+                position += length;
+                return string;
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public Object readValue(List<String> strings) {
+            int tag = readByte();
+
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+
+                case TAG_INTEGER:
+                    long zigzag = readVarLong();
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+
+                case TAG_DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | readByte();
+                    }
+                    return Double.longBitsToDouble(bits);
+
+                case TAG_STRING:
+                    return string(strings, readVarInt());
+
+                case TAG_ARRAY: {
+                    int size = readVarInt();
+                    JSONArray array = new JSONArray();
+
+                    for (int i = 0; i < size; i++) {
+                        array.add(readValue(strings));
+                    }
+
+                    return array;
+                }
+
+                case TAG_OBJECT: {
+                    int size = readVarInt();
+                    JSONObject object = new JSONObject();
+
+                    for (int i = 0; i < size; i++) {
+                        String key = string(strings, readVarInt());
+                        object.put(key, readValue(strings));
+                    }
+
+                    return object;
+                }
+
+                default:
+                    throw new IllegalArgumentException("Unknown type tag: " + tag);
+            }
+        }
+
+        private String string(List<String> strings, int index) {
+            if (index >= strings.size()) {
+                throw new IllegalArgumentException("Invalid string index: " + index);
+            }
+
+            return strings.get(index);
+        }
+
+    }
+
+}
@@ -29,6 +29,7 @@
 package com.griefcraft.sql;
 
 
+import com.griefcraft.cache.LRUCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.scripting.ModuleException;
 import com.griefcraft.util.Statistics;
@@ -45,7 +46,10 @@ import java.sql.Driver;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
@@ -91,16 +95,68 @@ public abstract class Database {
     public Type currentType;
 
     /**
-     * Store cached prepared statements.
+     * The max amount of prepared statements each thread keeps cached
+     */
+    private static final int STATEMENT_CACHE_SIZE = 100;
+
+    /**
+     * The connection to the database. This is the first connection in the pool, and the connection the thread that
+     * connected uses
+     */
+    protected Connection connection = null;
+
+    /**
+     * Every open connection to the database
+     */
+    private final List<Connection> pool = new ArrayList<Connection>();
+
+    /**
+     * The connection (and its cached prepared statements) each thread uses. A thread always uses the same connection,
+     * and prepared statements are never shared between threads.
      * <p/>
      * Since SQLite JDBC doesn't cache them.. we do it ourselves :S
      */
-    private Map<String, PreparedStatement> statementCache = new HashMap<String, PreparedStatement>();
+    private final ThreadLocal<Lease> lease = new ThreadLocal<Lease>();
 
     /**
-     * The connection to the database
+     * The lease of each thread, so their statements can be closed. Leases of threads that ended are dropped when a
+     * new lease is handed out.
      */
-    protected Connection connection = null;
+    private final Map<Thread, Lease> leases = new HashMap<Thread, Lease>();
+
+    /**
+     * The index in the pool of the connection that is reserved for writing queued changes
+     */
+    private static final int WRITER_CONNECTION = 1;
+
+    /**
+     * The lease of the connection reserved for writing queued changes, see {@link #beginWrite()}
+     */
+    private Lease writerLease = null;
+
+    /**
+     * The lease a thread used before it called {@link #beginWrite()}
+     */
+    private final ThreadLocal<Lease> previousLease = new ThreadLocal<Lease>();
+
+    /**
+     * The next connection in the pool to hand out
+     */
+    private int nextConnection = 0;
+
+    /**
+     * The driver, url and properties the pool was opened with, used to open connections for long scans
+     */
+    private Driver driver = null;
+
+    private String url = null;
+
+    private Properties properties = null;
+
+    /**
+     * Incremented every time the pool is disposed, so leases of older connections are not used
+     */
+    private volatile int generation = 0;
 
     /**
      * Logging object
@@ -150,6 +206,8 @@ public abstract class Database {
      * @return TRUE if successful, FALSE if exception was thrown
      */
     public boolean setAutoCommit(boolean autoCommit) {
+        Connection connection = getConnection();
+
         try {
             // Commit the database if we are setting auto commit back to true
             if (autoCommit) {
@@ -238,9 +296,42 @@ public abstract class Database {
             properties.put("password", lwc.getConfiguration().getString("database.password"));
         }
 
+        // one connection for the thread that connected and one for writing queued changes. SQLite only allows one
+        // writer at a time, so it does not get any more than that
+        int poolSize = 2;
+
+        if (currentType == Type.MySQL) {
+            poolSize = Math.max(2, LWC.getInstance().getConfiguration().getInt("database.poolSize", 4));
+        }
+
         // Connect to the database
         try {
-            connection = driver.connect("jdbc:" + currentType.toString().toLowerCase() + ":" + getDatabasePath(), properties);
+            String url = "jdbc:" + currentType.toString().toLowerCase() + ":" + getDatabasePath();
+            connection = driver.connect(url, properties);
+
+            this.driver = driver;
+            this.url = url;
+            this.properties = properties;
+
+            synchronized (pool) {
+                pool.add(connection);
+
+                for (int i = 1; i < poolSize; i++) {
+                    pool.add(driver.connect(url, properties));
+                }
+
+                if (currentType == Type.SQLite) {
+                    // wait for the other connection to finish writing instead of failing with SQLITE_BUSY
+                    for (Connection pooled : pool) {
+                        setBusyTimeout(pooled);
+                    }
+                }
+
+                // the connecting thread keeps using the first connection
+                nextConnection = 0;
+                lease.set(createLease());
+            }
+
             connected = true;
             return true;
         } catch (SQLException e) {
@@ -250,24 +341,188 @@ public abstract class Database {
     }
 
     public void dispose() {
-        statementCache.clear();
+        synchronized (pool) {
+            for (Lease leased : leases.values()) {
+                leased.close();
+            }
 
-        try {
-            if (connection != null) {
-                connection.close();
+            if (writerLease != null) {
+                writerLease.close();
+                writerLease = null;
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+
+            leases.clear();
+            generation++;
+
+            for (Connection pooled : pool) {
+                try {
+                    pooled.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            pool.clear();
         }
 
+        lease.remove();
+        previousLease.remove();
         connection = null;
     }
 
     /**
-     * @return the connection to the database
+     * Open a connection of its own for a long scan, e.g one that streams a whole table. It is not part of the pool,
+     * so the scan can not break or hold up the statements of other threads. The caller must close it.
+     *
+     * @return the connection, or null if not connected
+     */
+    public Connection openConnection() throws SQLException {
+        if (driver == null) {
+            return null;
+        }
+
+        Connection opened = driver.connect(url, properties);
+
+        if (opened != null && currentType == Type.SQLite) {
+            setBusyTimeout(opened);
+        }
+
+        return opened;
+    }
+
+    /**
+     * Make the current thread use the connection that is reserved for writing queued changes, until
+     * {@link #endWrite()} is called. A transaction started in between then never includes queries of other threads.
+     * Only one thread may be writing at a time.
+     */
+    public void beginWrite() {
+        Lease writer;
+
+        synchronized (pool) {
+            if (pool.isEmpty()) {
+                return;
+            }
+
+            if (writerLease == null || writerLease.generation != generation) {
+                writerLease = new Lease(pool.get(Math.min(WRITER_CONNECTION, pool.size() - 1)), generation);
+            }
+
+            writer = writerLease;
+        }
+
+        previousLease.set(lease.get());
+        lease.set(writer);
+    }
+
+    /**
+     * Go back to the connection the current thread used before {@link #beginWrite()}
+     */
+    public void endWrite() {
+        Lease previous = previousLease.get();
+        previousLease.remove();
+
+        if (previous != null) {
+            lease.set(previous);
+        } else {
+            lease.remove();
+        }
+    }
+
+    /**
+     * @return the connection to the database the current thread uses
      */
     public Connection getConnection() {
-        return connection;
+        Lease current = getLease();
+        return current != null ? current.connection : connection;
+    }
+
+    /**
+     * @return the amount of open connections to the database
+     */
+    public int getPoolSize() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+
+    /**
+     * Get the lease of the current thread, handing it a connection if it does not have one yet
+     *
+     * @return the lease, or null if not connected
+     */
+    private Lease getLease() {
+        Lease current = lease.get();
+
+        if (current != null && current.generation == generation) {
+            return current;
+        }
+
+        synchronized (pool) {
+            if (pool.isEmpty()) {
+                return null;
+            }
+
+            current = createLease();
+            lease.set(current);
+            return current;
+        }
+    }
+
+    /**
+     * Hand out the next connection in the pool. Must be synchronized on the pool.
+     *
+     * @return
+     */
+    private Lease createLease() {
+        Lease created = new Lease(pool.get(nextConnection), generation);
+
+        // every connection but the one reserved for writing is shared by the threads that read
+        do {
+            nextConnection = (nextConnection + 1) % pool.size();
+        } while (nextConnection == WRITER_CONNECTION && pool.size() > 1);
+
+        // the statements of threads that ended can not be used anymore
+        Iterator<Map.Entry<Thread, Lease>> iterator = leases.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<Thread, Lease> entry = iterator.next();
+
+            if (!entry.getKey().isAlive()) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+
+        Lease previous = leases.put(Thread.currentThread(), created);
+
+        if (previous != null) {
+            previous.close();
+        }
+
+        return created;
+    }
+
+    /**
+     * Make a SQLite connection wait for a while when the database is locked by another connection
+     *
+     * @param connection
+     */
+    private void setBusyTimeout(Connection connection) {
+        Statement statement = null;
+
+        try {
+            statement = connection.createStatement();
+            statement.execute("PRAGMA busy_timeout = 10000");
+        } catch (SQLException e) {
+            // older drivers; writes on both connections at once may then fail with SQLITE_BUSY
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
     }
 
     /**
@@ -312,25 +567,29 @@ public abstract class Database {
     }
 
     public PreparedStatement prepare(String sql, boolean returnGeneratedKeys) {
-        if (connection == null) {
+        Lease current = getLease();
+
+        if (current == null) {
             return null;
         }
 
-        if (statementCache.containsKey(sql)) {
+        PreparedStatement cached = current.statements.get(sql);
+
+        if (cached != null) {
             Statistics.addQuery();
-            return statementCache.get(sql);
+            return cached;
         }
 
         try {
             PreparedStatement preparedStatement;
 
             if (returnGeneratedKeys) {
-                preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                preparedStatement = current.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
             } else {
-                preparedStatement = connection.prepareStatement(sql);
+                preparedStatement = current.connection.prepareStatement(sql);
             }
 
-            statementCache.put(sql, preparedStatement);
+            current.statements.put(sql, preparedStatement);
             Statistics.addQuery();
 
             return preparedStatement;
@@ -391,7 +650,7 @@ public abstract class Database {
         boolean exception = false;
 
         try {
-            statement = connection.createStatement();
+            statement = getConnection().createStatement();
             statement.executeUpdate(query);
         } catch (SQLException e) {
             exception = true;
@@ -414,4 +673,74 @@ public abstract class Database {
         return connected;
     }
 
+    /**
+     * A connection handed to a thread and the prepared statements that thread cached on it
+     */
+    private static final class Lease {
+
+        /**
+         * The connection the thread uses
+         */
+        private final Connection connection;
+
+        /**
+         * The generation of the pool the connection belongs to
+         */
+        private final int generation;
+
+        /**
+         * The cached prepared statements, the least recently used statement is closed when it is full
+         */
+        private final StatementCache statements = new StatementCache(STATEMENT_CACHE_SIZE);
+
+        private Lease(Connection connection, int generation) {
+            this.connection = connection;
+            this.generation = generation;
+        }
+
+        /**
+         * Close every cached statement
+         */
+        private void close() {
+            synchronized (statements) {
+                for (PreparedStatement statement : statements.values()) {
+                    try {
+                        statement.close();
+                    } catch (SQLException e) {
+                    }
+                }
+
+                statements.clear();
+            }
+        }
+
+    }
+
+    /**
+     * Prepared statements by their sql, the least recently used statement is closed when it is full
+     */
+    private static final class StatementCache extends LRUCache<String, PreparedStatement> {
+
+        private static final long serialVersionUID = 1L;
+
+        private StatementCache(int maxCapacity) {
+            super(maxCapacity);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (super.removeEldestEntry(eldest)) {
+                try {
+                    eldest.getValue().close();
+                } catch (SQLException e) {
+                }
+
+                return true;
+            }
+
+            return false;
+        }
+
+    }
+
 }
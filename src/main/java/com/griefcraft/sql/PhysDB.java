@@ -29,7 +29,10 @@
 package com.griefcraft.sql;
 
 import com.griefcraft.cache.LRUCache;
+import com.griefcraft.cache.LongHashMap;
 import com.griefcraft.cache.ProtectionCache;
+import com.griefcraft.cache.ProtectionCountCache;
+import com.griefcraft.cache.ProtectionFilter;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Flag;
 import com.griefcraft.model.History;
@@ -38,31 +41,54 @@ import com.griefcraft.model.Permission;
 import com.griefcraft.model.Protection;
 import com.griefcraft.modules.limits.LimitsModule;
 import com.griefcraft.scripting.Module;
+import com.griefcraft.util.DatabaseThread;
+import com.griefcraft.util.Statistics;
+import com.mysql.jdbc.exceptions.jdbc4.CommunicationsException;
+import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
-import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class PhysDB extends Database {
 
     /**
-     * The JSON Parser object
+     * The database version
      */
-    private final JSONParser jsonParser = new JSONParser();
+    private int databaseVersion = 0;
 
     /**
-     * The database version
+     * The amount of protections each player has
      */
-    private int databaseVersion = 0;
+    private final ProtectionCountCache protectionCounts = new ProtectionCountCache(1000, currentType == Type.MySQL);
+
+    /**
+     * The amount of protections read at once when precaching
+     */
+    private static final int PRECACHE_PAGE_SIZE = 1000;
+
+    /**
+     * The amount of protections read at once when building the protection filter. Only the coordinates are read.
+     */
+    private static final int FILTER_PAGE_SIZE = 10000;
+
+    /**
+     * If the data column of protections is written using the compact encoding instead of JSON
+     */
+    private final boolean compactData = LWC.getInstance().getConfiguration().getString("database.dataFormat", "json").equalsIgnoreCase("compact");
 
     public PhysDB() {
         super();
@@ -72,6 +98,112 @@ public class PhysDB extends Database {
         super(currentType);
     }
 
+    /**
+     * Encode the data of a protection in the format set in the configuration
+     *
+     * @param protection
+     * @return
+     */
+    public String encodeData(Protection protection) {
+        return encodeData(protection.getData());
+    }
+
+    /**
+     * Encode protection data in the format set in the configuration
+     *
+     * @param data
+     * @return
+     */
+    private String encodeData(JSONObject data) {
+        return compactData ? DataCodec.encode(data) : data.toJSONString();
+    }
+
+    /**
+     * Convert the data column of every protection to the format set in the configuration. Protections are
+     * converted in small batches and a row is only updated if it did not change since it was read, so this
+     * is safe to run while the server is running. It should not be run on the main thread.
+     *
+     * @return the amount of protections that were converted
+     */
+    public int convertProtectionData() {
+        JSONParser parser = new JSONParser();
+        int lastId = -1;
+        int converted = 0;
+        long start = System.currentTimeMillis();
+
+        while (true) {
+            List<Integer> ids = new ArrayList<Integer>();
+            List<String> oldData = new ArrayList<String>();
+            List<String> newData = new ArrayList<String>();
+
+            try {
+                PreparedStatement statement = prepare("SELECT id, data FROM " + prefix + "protections WHERE id > ? ORDER BY id LIMIT 500");
+                statement.setInt(1, lastId);
+
+                ResultSet set = statement.executeQuery();
+                int rows = 0;
+
+                while (set.next()) {
+                    int id = set.getInt("id");
+                    String data = set.getString("data");
+                    lastId = id;
+                    rows++;
+
+                    // already in the right format
+                    if (data == null || data.trim().isEmpty() || DataCodec.isCompact(data) == compactData) {
+                        continue;
+                    }
+
+                    try {
+                        JSONObject root = DataCodec.isCompact(data) ? DataCodec.decode(data) : (JSONObject) parser.parse(data);
+                        ids.add(id);
+                        oldData.add(data);
+                        newData.add(encodeData(root));
+                    } catch (Exception e) {
+                        log("Skipping protection #" + id + ", its data could not be read: " + e.getMessage());
+                    }
+                }
+
+                set.close();
+
+                if (rows == 0) {
+                    break;
+                }
+            } catch (SQLException e) {
+                printException(e);
+                break;
+            }
+
+            if (ids.isEmpty()) {
+                continue;
+            }
+
+            try {
+                // only rows that were not changed since they were read are converted
+                PreparedStatement statement = prepare("UPDATE " + prefix + "protections SET data = ? WHERE id = ? AND data = ?");
+
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setString(1, newData.get(i));
+                    statement.setInt(2, ids.get(i));
+                    statement.setString(3, oldData.get(i));
+                    statement.addBatch();
+                }
+
+                for (int updated : statement.executeBatch()) {
+                    if (updated > 0 || updated == Statement.SUCCESS_NO_INFO) {
+                        converted++;
+                    }
+                }
+            } catch (SQLException e) {
+                printException(e);
+                break;
+            }
+        }
+
+        log("Converted " + converted + " protections to " + (compactData ? "compact" : "json") + " data in " + (System.currentTimeMillis() - start) + "ms");
+        return converted;
+    }
+
     /**
      * Fetch an object from the sql database
      *
@@ -153,24 +285,56 @@ public class PhysDB extends Database {
      * @return the amount of protections they have
      */
     public int getProtectionCount(String player) {
-        int count = 0;
+        int count = protectionCounts.getCount(player);
+
+        if (count == -1) {
+            loadProtectionCounts(player);
+            count = protectionCounts.getCount(player);
+        }
+
+        return Math.max(0, count);
+    }
+
+    /**
+     * Get the cached protection counts of players
+     *
+     * @return
+     */
+    public ProtectionCountCache getProtectionCounts() {
+        return protectionCounts;
+    }
+
+    /**
+     * Load the amount of protections a player has of each block id into the protection count cache
+     *
+     * @param player
+     */
+    private void loadProtectionCounts(String player) {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        DatabaseThread databaseThread = LWC.getInstance().getDatabaseThread();
+
+        // queued removals and owner changes would otherwise be counted as they are in the database now
+        if (databaseThread != null && (databaseThread.size() > 0 || databaseThread.removalSize() > 0)) {
+            databaseThread.flushNow();
+        }
 
         try {
-            PreparedStatement statement = prepare("SELECT COUNT(*) as count FROM " + prefix + "protections WHERE owner = ?");
+            PreparedStatement statement = prepare("SELECT blockId, COUNT(*) AS count FROM " + prefix + "protections WHERE owner = ? GROUP BY blockId");
             statement.setString(1, player);
 
             ResultSet set = statement.executeQuery();
 
-            if (set.next()) {
-                count = set.getInt("count");
+            while (set.next()) {
+                counts.put(set.getInt("blockId"), set.getInt("count"));
             }
 
             set.close();
         } catch (SQLException e) {
             printException(e);
+            return;
         }
 
-        return count;
+        protectionCounts.load(player, counts);
     }
 
     /**
@@ -207,25 +371,14 @@ public class PhysDB extends Database {
      * @return the amount of protections they have of blockId
      */
     public int getProtectionCount(String player, int blockId) {
-        int count = 0;
+        int count = protectionCounts.getCount(player, blockId);
 
-        try {
-            PreparedStatement statement = prepare("SELECT COUNT(*) AS count FROM " + prefix + "protections WHERE owner = ? AND blockId = ?");
-            statement.setString(1, player);
-            statement.setInt(2, blockId);
-
-            ResultSet set = statement.executeQuery();
-
-            if (set.next()) {
-                count = set.getInt("count");
-            }
-
-            set.close();
-        } catch (SQLException e) {
-            printException(e);
+        if (count == -1) {
+            loadProtectionCounts(player);
+            count = protectionCounts.getCount(player, blockId);
         }
 
-        return count;
+        return Math.max(0, count);
     }
 
     /**
@@ -581,13 +734,31 @@ public class PhysDB extends Database {
      * @return the Chest object
      */
     public Protection loadProtection(int id) {
+        return loadProtection(id, false);
+    }
+
+    /**
+     * Load a protection with the given id
+     *
+     * @param id
+     * @param ignoreCache if the cache should not be checked first, e.g the protection was just created
+     * @return the Chest object
+     */
+    public Protection loadProtection(int id, boolean ignoreCache) {
         // the protection cache
         ProtectionCache cache = LWC.getInstance().getProtectionCache();
 
-        // check if the protection is already cached
-        Protection cached = cache.getProtectionById(id);
-        if (cached != null) {
-            return cached;
+        if (!ignoreCache) {
+            // check if the protection is already cached
+            Protection cached = cache.getProtectionById(id);
+            if (cached != null) {
+                return cached;
+            }
+
+            // every protection is in memory, so it does not exist
+            if (cache.isResident()) {
+                return null;
+            }
         }
 
         try {
@@ -634,109 +805,54 @@ public class PhysDB extends Database {
      */
     public Protection resolveProtection(ResultSet set) {
         try {
-            Protection protection = new Protection();
-
-            int protectionId = set.getInt("id");
-            int x = set.getInt("x");
-            int y = set.getInt("y");
-            int z = set.getInt("z");
-            int blockId = set.getInt("blockId");
-            int type = set.getInt("type");
-            String world = set.getString("world");
-            String owner = set.getString("owner");
-            String password = set.getString("password");
-            String date = set.getString("date");
-            long lastAccessed = set.getLong("last_accessed");
-
-            protection.setId(protectionId);
-            protection.setX(x);
-            protection.setY(y);
-            protection.setZ(z);
-            protection.setBlockId(blockId);
-            protection.setType(Protection.Type.values()[type]);
-            protection.setWorld(world);
-            protection.setOwner(owner);
-            protection.setPassword(password);
-            protection.setCreation(date);
-            protection.setLastAccessed(lastAccessed);
-
-            // check for oh so beautiful data!
-            String data = set.getString("data");
-
-            if (data == null || data.trim().isEmpty()) {
-                return protection;
-            }
-
-            // rev up them JSON parsers!
-            Object object = null;
-
-            try {
-                object = jsonParser.parse(data);
-            } catch (Exception e) {
-                return protection;
-            } catch (Error e) {
-                return protection;
-            }
-
-            if (!(object instanceof JSONObject)) {
-                return protection;
-            }
-
-            // obtain the root
-            JSONObject root = (JSONObject) object;
-            protection.getData().putAll(root);
-
-            // Attempt to parse rights
-            Object rights = root.get("rights");
-
-            if (rights != null && (rights instanceof JSONArray)) {
-                JSONArray array = (JSONArray) rights;
-
-                for (Object node : array) {
-                    // we only want to use the maps
-                    if (!(node instanceof JSONObject)) {
-                        continue;
-                    }
-
-                    JSONObject map = (JSONObject) node;
-
-                    // decode the map
-                    Permission permission = Permission.decodeJSON(map);
-
-                    // bingo!
-                    if (permission != null) {
-                        protection.addPermission(permission);
-                    }
-                }
-            }
-
-            // Attempt to parse flags
-            Object flags = root.get("flags");
-            if (flags != null && (rights instanceof JSONArray)) {
-                JSONArray array = (JSONArray) flags;
-
-                for (Object node : array) {
-                    if (!(node instanceof JSONObject)) {
-                        continue;
-                    }
-
-                    JSONObject map = (JSONObject) node;
-
-                    Flag flag = Flag.decodeJSON(map);
-
-                    if (flag != null) {
-                        protection.addFlag(flag);
-                    }
-                }
-            }
-
-            return protection;
+            return readProtection(set);
         } catch (SQLException e) {
             printException(e);
             return null;
         }
     }
 
+    /**
+     * Read the columns of one protection from a ResultSet
+     *
+     * @param set
+     * @return
+     */
+    private Protection readProtection(ResultSet set) throws SQLException {
+        Protection protection = new Protection();
+
+        int protectionId = set.getInt("id");
+        int x = set.getInt("x");
+        int y = set.getInt("y");
+        int z = set.getInt("z");
+        int blockId = set.getInt("blockId");
+        int type = set.getInt("type");
+        String world = set.getString("world");
+        String owner = set.getString("owner");
+        String password = set.getString("password");
+        String date = set.getString("date");
+        long lastAccessed = set.getLong("last_accessed");
+
+        protection.setId(protectionId);
+        protection.setX(x);
+        protection.setY(y);
+        protection.setZ(z);
+        protection.setBlockId(blockId);
+        protection.setType(Protection.Type.values()[type]);
+        protection.setWorld(world);
+        protection.setOwner(owner);
+        protection.setPassword(password);
+        protection.setCreation(date);
+        protection.setLastAccessed(lastAccessed);
+
+        // the data is decoded when the protection's permissions or flags are first used
+        protection.setEncodedData(set.getString("data"));
+
+        // it matches the database, so there is nothing to save yet
+        protection.markClean();
+        return protection;
+    }
+
     /**
      * Resolve every protection from a result set
      *
@@ -744,18 +860,39 @@ public class PhysDB extends Database {
      * @return
      */
     private List<Protection> resolveProtections(ResultSet set) {
+        try {
+            return readProtections(set);
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return new ArrayList<Protection>();
+    }
+
+    /**
+     * Read every protection from a result set. Unlike resolveProtections, a failure is passed on to the caller
+     * instead of looking like a result without any protections.
+     *
+     * @param set
+     * @return
+     */
+    private List<Protection> readProtections(ResultSet set) throws SQLException {
         List<Protection> protections = new ArrayList<Protection>();
+        ProtectionCache cache = LWC.getInstance().getProtectionCache();
 
-        try {
-            while (set.next()) {
-                Protection protection = resolveProtection(set);
+        while (set.next()) {
+            Protection protection = readProtection(set);
 
-                if (protection != null) {
-                    protections.add(protection);
+            // use the instance in memory so changes to it are not lost
+            if (cache.isResident()) {
+                Protection resident = cache.getProtectionById(protection.getId());
+
+                if (resident != null) {
+                    protection = resident;
                 }
             }
-        } catch (SQLException e) {
-            printException(e);
+
+            protections.add(protection);
         }
 
         return protections;
@@ -768,24 +905,33 @@ public class PhysDB extends Database {
      * @return
      */
     private List<Protection> resolveProtections(PreparedStatement statement) {
-        List<Protection> protections = new ArrayList<Protection>();
-        ResultSet set = null;
-
         try {
-            set = statement.executeQuery();
-            protections = resolveProtections(set);
+            return queryProtections(statement);
         } catch (SQLException e) {
             printException(e);
+        }
+
+        return new ArrayList<Protection>();
+    }
+
+    /**
+     * Run a statement and read every protection it returns. A failed query is passed on to the caller, so it can
+     * be told apart from a query that found nothing; only the latter may be remembered as "not protected".
+     *
+     * @param statement
+     * @return
+     */
+    private List<Protection> queryProtections(PreparedStatement statement) throws SQLException {
+        ResultSet set = statement.executeQuery();
+
+        try {
+            return readProtections(set);
         } finally {
-            if (set != null) {
-                try {
-                    set.close();
-                } catch (SQLException e) {
-                }
+            try {
+                set.close();
+            } catch (SQLException e) {
             }
         }
-
-        return protections;
     }
 
     /**
@@ -806,128 +952,453 @@ public class PhysDB extends Database {
 
     /**
      * Fill the protection cache as much as possible with protections
-     * Caches the most recent protections
+     * Caches the most recent protections in the background, lookups use the database like normal until then
      */
     public void precache() {
         LWC lwc = LWC.getInstance();
-        ProtectionCache cache = lwc.getProtectionCache();
+        final ProtectionCache cache = lwc.getProtectionCache();
 
         // clear the cache incase we're working on a dirty cache
         cache.clear();
 
+        // load every protection instead
+        if (cache.isResident()) {
+            loadResident(cache);
+            return;
+        }
+
         int precacheSize = lwc.getConfiguration().getInt("core.precache", -1);
 
         if (precacheSize == -1) {
             precacheSize = lwc.getConfiguration().getInt("core.cacheSize", 10000);
         }
 
+        final int limit = precacheSize;
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                int count = 0;
+                int read = 0;
+                int lastId = Integer.MAX_VALUE;
+
+                try {
+                    // read in pages instead of streaming, so other threads can use the same connection in between
+                    PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE id < ? ORDER BY id DESC LIMIT ?");
+
+                    while (read < limit) {
+                        statement.setInt(1, lastId);
+                        statement.setInt(2, Math.min(PRECACHE_PAGE_SIZE, limit - read));
+
+                        ResultSet set = statement.executeQuery();
+                        int rows = 0;
+
+                        // publish each protection as soon as it is read
+                        while (set.next()) {
+                            lastId = set.getInt("id");
+                            rows++;
+
+                            if (cache.addIfAbsent(resolveProtection(set))) {
+                                count++;
+                            }
+                        }
+
+                        set.close();
+                        read += rows;
+
+                        if (rows == 0) {
+                            break;
+                        }
+                    }
+                } catch (SQLException e) {
+                    printException(e);
+                }
+
+                long time = Math.max(1, System.currentTimeMillis() - start);
+                log("Precached " + count + " protections in " + time + "ms (" + (count * 1000L / time) + " rows/s)");
+            }
+        }, "LWC Precache");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Load every protection into the resident cache. The protections are streamed from the database so the whole
+     * result set is never held in memory at once.
+     *
+     * @param cache
+     */
+    private void loadResident(ProtectionCache cache) {
+        Runtime runtime = Runtime.getRuntime();
+        long start = System.currentTimeMillis();
+        int count = 0;
+
+        System.gc();
+        long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+        Connection scanConnection = null;
+
+        try {
+            // streamed on a connection of its own, other threads can not use a connection while it streams
+            scanConnection = openConnection();
+            Statement statement = scanConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            Statistics.addQuery();
+
+            if (currentType == Type.MySQL) {
+                statement.setFetchSize(Integer.MIN_VALUE);
+            } else {
+                statement.setFetchSize(1000);
+            }
+
+            ResultSet set = statement.executeQuery("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections");
+
+            while (set.next()) {
+                Protection protection = resolveProtection(set);
+
+                if (protection != null) {
+                    cache.add(protection);
+                    count++;
+                }
+            }
+
+            set.close();
+            statement.close();
+        } catch (SQLException e) {
+            printException(e);
+        } finally {
+            if (scanConnection != null) {
+                try {
+                    scanConnection.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        System.gc();
+        long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+
+        if (count > 0) {
+            cache.setBytesPerProtection(Math.max(0, memoryAfter - memoryBefore) / count);
+        }
+
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        log("Loaded " + count + " protections into memory in " + time + "ms (" + (count * 1000L / time) + " rows/s, ~" + cache.getBytesPerProtection() + " bytes each)");
+    }
+
+    /**
+     * Add the block of every protection to a protection filter. Only the coordinates are read, a page at a time, so
+     * the protections themselves are never loaded.
+     *
+     * @param filter
+     * @return the amount of protections added, or -1 if the protections could not be read
+     */
+    public int fillProtectionFilter(ProtectionFilter filter) {
+        int count = 0;
+        int lastId = -1;
+
+        try {
+            // read in pages instead of streaming, so other threads can use the same connection in between
+            PreparedStatement statement = prepare("SELECT id, world, x, y, z FROM " + prefix + "protections WHERE id > ? ORDER BY id LIMIT ?");
+
+            while (true) {
+                statement.setInt(1, lastId);
+                statement.setInt(2, FILTER_PAGE_SIZE);
+
+                ResultSet set = statement.executeQuery();
+                int rows = 0;
+
+                while (set.next()) {
+                    lastId = set.getInt("id");
+                    filter.add(set.getString("world"), set.getInt("x"), set.getInt("y"), set.getInt("z"));
+                    rows++;
+                }
+
+                set.close();
+                count += rows;
+
+                if (rows < FILTER_PAGE_SIZE) {
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            printException(e);
+            return -1;
+        }
+
+        return count;
+    }
+
+    /**
+     * Load a chest at a given tile
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return the Protection object
+     */
+    public Protection loadProtection(String worldName, int x, int y, int z) {
+        return loadProtection(worldName, x, y, z, false);
+    }
+
+    /**
+     * Load a chest at a given tile
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param ignoreCache if the cache should not be checked first, e.g the protection was just created
+     * @return the Protection object
+     */
+    public Protection loadProtection(String worldName, int x, int y, int z, boolean ignoreCache) {
+        // the protection cache
+        ProtectionCache cache = LWC.getInstance().getProtectionCache();
+
+        if (!ignoreCache) {
+            // check if the protection is already cached
+            Protection cached = cache.getProtection(worldName, x, y, z);
+            if (cached != null) {
+                return cached;
+            }
+
+            // we already know there is no protection there
+            if (cache.isKnownNull(worldName, x, y, z)) {
+                return null;
+            }
+        }
+
         try {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections ORDER BY id DESC LIMIT ?");
-            statement.setInt(1, precacheSize);
-            statement.setFetchSize(10);
+            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE x = ? AND y = ? AND z = ? AND world = ?");
+            statement.setInt(1, x);
+            statement.setInt(2, y);
+            statement.setInt(3, z);
+            statement.setString(4, worldName);
 
-            // scrape the protections from the result set now
-            List<Protection> protections = resolveProtections(statement);
+            List<Protection> protections = queryProtections(statement);
+            Protection protection = protections.isEmpty() ? null : protections.get(0);
 
-            // throw all of the protections in
-            for (Protection protection : protections) {
+            // cache the protection, or remember that there is none. Not reached if the query failed
+            if (protection != null) {
                 cache.add(protection);
+            } else {
+                cache.addNull(worldName, x, y, z);
+            }
+
+            return protection;
+        } catch (SQLException e) {
+            printException(e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Load all protections (use sparingly !!)
+     *
+     * @return
+     */
+    public List<Protection> loadProtections() {
+        try {
+            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections");
+
+            return resolveProtections(statement);
+        } catch (Exception e) {
+            printException(e);
+        }
+
+        return new ArrayList<Protection>();
+    }
+
+    /**
+     * Load the first protection within a block's radius
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @param radius
+     * @return list of Protection objects found
+     */
+    public List<Protection> loadProtections(String world, int x, int y, int z, int radius) {
+        try {
+            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ?");
+
+            statement.setString(1, world);
+            statement.setInt(2, x - radius);
+            statement.setInt(3, x + radius);
+            statement.setInt(4, y - radius);
+            statement.setInt(5, y + radius);
+            statement.setInt(6, z - radius);
+            statement.setInt(7, z + radius);
+
+            return resolveProtections(statement);
+        } catch (Exception e) {
+            printException(e);
+        }
+
+        return new ArrayList<Protection>();
+    }
+
+    /**
+     * Load all of the protections in a chunk. This does not use the statement cache.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @return list of Protection objects found, or null if the query failed
+     */
+    public List<Protection> loadProtectionsInChunk(String world, int chunkX, int chunkZ) {
+        PreparedStatement statement = null;
+
+        try {
+            statement = getConnection().prepareStatement("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND z >= ? AND z <= ?");
+            Statistics.addQuery();
+
+            statement.setString(1, world);
+            statement.setInt(2, chunkX << 4);
+            statement.setInt(3, (chunkX << 4) + 15);
+            statement.setInt(4, chunkZ << 4);
+            statement.setInt(5, (chunkZ << 4) + 15);
+
+            return queryProtections(statement);
+        } catch (Exception e) {
+            printException(e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
             }
-
-            log("Precached " + protections.size() + " protections.");
-        } catch (SQLException e) {
-            printException(e);
         }
 
-        // Cache them all
+        // an empty list would mark the whole chunk as unprotected
+        return null;
     }
 
     /**
-     * Load a chest at a given tile
+     * Load the protections on several blocks at once. Blocks that are cached, known to not be protected or that the
+     * protection filter rules out are not looked up; the rest are loaded with one query and cached, and the blocks
+     * that turned out to not be protected are remembered as such. This does not use the statement cache.
      *
-     * @param x
-     * @param y
-     * @param z
-     * @return the Protection object
+     * @param world
+     * @param blocks the blocks to look up, all in the given world
+     * @return the protections found on the blocks
      */
-    public Protection loadProtection(String worldName, int x, int y, int z) {
-        // the unique key to use in the cache
-        String cacheKey = worldName + ":" + x + ":" + y + ":" + z;
-
-        // the protection cache
+    public List<Protection> loadProtections(String world, Collection<Block> blocks) {
         ProtectionCache cache = LWC.getInstance().getProtectionCache();
-
-        // check if the protection is already cached
-        Protection cached = cache.getProtection(cacheKey);
-        if (cached != null) {
-            return cached;
+        ProtectionFilter filter = cache.getFilter();
+        List<Protection> protections = new ArrayList<Protection>();
+        List<Block> misses = new ArrayList<Block>();
+
+        for (Block block : blocks) {
+            int x = block.getX();
+            int y = block.getY();
+            int z = block.getZ();
+            Protection cached = cache.getProtection(world, x, y, z);
+
+            if (cached != null) {
+                protections.add(cached);
+            } else if (filter.mightContain(world, x, y, z) && !cache.isKnownNull(world, x, y, z)) {
+                misses.add(block);
+            }
         }
 
-        try {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE x = ? AND y = ? AND z = ? AND world = ?");
-            statement.setInt(1, x);
-            statement.setInt(2, y);
-            statement.setInt(3, z);
-            statement.setString(4, worldName);
-
-            Protection protection = resolveProtection(statement);
+        if (misses.isEmpty()) {
+            return protections;
+        }
 
-            // cache the protection
-            cache.add(protection);
+        StringBuilder conditions = new StringBuilder("(x = ? AND y = ? AND z = ?)");
 
-            return protection;
-        } catch (SQLException e) {
-            printException(e);
+        for (int i = 1; i < misses.size(); i++) {
+            conditions.append(" OR (x = ? AND y = ? AND z = ?)");
         }
 
-        return null;
-    }
+        PreparedStatement statement = null;
 
-    /**
-     * Load all protections (use sparingly !!)
-     *
-     * @return
-     */
-    public List<Protection> loadProtections() {
         try {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections");
+            statement = getConnection().prepareStatement("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND (" + conditions + ")");
+            Statistics.addQuery();
 
-            return resolveProtections(statement);
+            statement.setString(1, world);
+
+            for (int i = 0; i < misses.size(); i++) {
+                Block block = misses.get(i);
+                statement.setInt(i * 3 + 2, block.getX());
+                statement.setInt(i * 3 + 3, block.getY());
+                statement.setInt(i * 3 + 4, block.getZ());
+            }
+
+            LongHashMap<Protection> found = new LongHashMap<Protection>();
+
+            // if the query fails nothing is remembered as not protected
+            for (Protection protection : queryProtections(statement)) {
+                cache.add(protection);
+                found.put(LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ()), protection);
+                protections.add(protection);
+            }
+
+            // remember the blocks that are not protected
+            for (Block block : misses) {
+                if (!found.containsKey(LongHashMap.pack(block.getX(), block.getY(), block.getZ()))) {
+                    cache.addNull(world, block.getX(), block.getY(), block.getZ());
+                }
+            }
         } catch (Exception e) {
             printException(e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
         }
 
-        return new ArrayList<Protection>();
+        return protections;
     }
 
     /**
-     * Load the first protection within a block's radius
+     * Load the protections with the given ids. This does not use the statement cache.
      *
-     * @param world
-     * @param x
-     * @param y
-     * @param z
-     * @param radius
+     * @param ids
      * @return list of Protection objects found
      */
-    public List<Protection> loadProtections(String world, int x, int y, int z, int radius) {
+    public List<Protection> loadProtectionsById(List<Integer> ids) {
+        List<Protection> protections = new ArrayList<Protection>();
+
+        if (ids.isEmpty()) {
+            return protections;
+        }
+
+        StringBuilder placeholders = new StringBuilder("?");
+
+        for (int i = 1; i < ids.size(); i++) {
+            placeholders.append(", ?");
+        }
+
+        PreparedStatement statement = null;
+
         try {
-            PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ?");
+            statement = getConnection().prepareStatement("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE id IN (" + placeholders + ")");
+            Statistics.addQuery();
 
-            statement.setString(1, world);
-            statement.setInt(2, x - radius);
-            statement.setInt(3, x + radius);
-            statement.setInt(4, y - radius);
-            statement.setInt(5, y + radius);
-            statement.setInt(6, z - radius);
-            statement.setInt(7, z + radius);
+            for (int i = 0; i < ids.size(); i++) {
+                statement.setInt(i + 1, ids.get(i));
+            }
 
             return resolveProtections(statement);
         } catch (Exception e) {
             printException(e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
         }
 
-        return new ArrayList<Protection>();
+        return protections;
     }
 
     /**
@@ -960,6 +1431,23 @@ public class PhysDB extends Database {
      * @return list of Protection objects found
      */
     public List<Protection> loadProtections(String world, int x1, int x2, int y1, int y2, int z1, int z2) {
+        List<Protection> protections = loadProtectionRegion(world, x1, x2, y1, y2, z1, z2);
+        return protections == null ? new ArrayList<Protection>() : protections;
+    }
+
+    /**
+     * Load all protections in the coordinate ranges
+     *
+     * @param world
+     * @param x1
+     * @param x2
+     * @param y1
+     * @param y2
+     * @param z1
+     * @param z2
+     * @return list of Protection objects found, or null if the query failed
+     */
+    public List<Protection> loadProtectionRegion(String world, int x1, int x2, int y1, int y2, int z1, int z2) {
         try {
             PreparedStatement statement = prepare("SELECT id, owner, type, x, y, z, data, blockId, world, password, date, last_accessed FROM " + prefix + "protections WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ?");
 
@@ -971,12 +1459,12 @@ public class PhysDB extends Database {
             statement.setInt(6, z1);
             statement.setInt(7, z2);
 
-            return resolveProtections(statement);
+            return queryProtections(statement);
         } catch (Exception e) {
             printException(e);
         }
 
-        return new ArrayList<Protection>();
+        return null;
     }
 
     /**
@@ -1058,7 +1546,7 @@ public class PhysDB extends Database {
      */
     public Protection registerProtection(int blockId, Protection.Type type, String world, String player, String data, int x, int y, int z) {
         try {
-            PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, world, owner, password, x, y, z, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            PreparedStatement statement = prepare("INSERT INTO " + prefix + "protections (blockId, type, world, owner, password, x, y, z, date, last_accessed) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", true);
 
             statement.setInt(1, blockId);
             statement.setInt(2, type.ordinal());
@@ -1073,9 +1561,29 @@ public class PhysDB extends Database {
 
             statement.executeUpdate();
 
+            // the filter would otherwise rule the block out until it is cached
+            LWC.getInstance().getProtectionCache().getFilter().add(world, x, y, z);
+
+            // load it by the id it was given, a removed protection on the same block may not be deleted yet
+            int protectionId = -1;
+            ResultSet generatedKeys = statement.getGeneratedKeys();
+
+            if (generatedKeys.next()) {
+                protectionId = generatedKeys.getInt(1);
+            }
+
+            generatedKeys.close();
+            protectionCounts.increment(player, blockId);
+
             // We need to create the initial transaction for this protection
             // this transaction is viewable and modifiable during POST_REGISTRATION
-            Protection protection = loadProtection(world, x, y, z);
+            // the cache may still think the block is empty, so go straight to the database
+            Protection protection = protectionId == -1 ? loadProtection(world, x, y, z, true) : loadProtection(protectionId, true);
+
+            // the block may have been found to be unprotected during this tick
+            if (LWC.getInstance().getProtectionMemo() != null) {
+                LWC.getInstance().getProtectionMemo().invalidate();
+            }
 
             // if history logging is enabled, create it
             if (LWC.getInstance().isHistoryEnabled() && protection != null) {
@@ -1558,26 +2066,322 @@ public class PhysDB extends Database {
     public void saveProtection(Protection protection) {
         try {
             PreparedStatement statement = prepare("REPLACE INTO " + prefix + "protections (id, type, blockId, world, data, owner, password, x, y, z, date, last_accessed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-
-            statement.setInt(1, protection.getId());
-            statement.setInt(2, protection.getType().ordinal());
-            statement.setInt(3, protection.getBlockId());
-            statement.setString(4, protection.getWorld());
-            statement.setString(5, protection.getData().toJSONString());
-            statement.setString(6, protection.getOwner());
-            statement.setString(7, protection.getPassword());
-            statement.setInt(8, protection.getX());
-            statement.setInt(9, protection.getY());
-            statement.setInt(10, protection.getZ());
-            statement.setString(11, protection.getCreation());
-            statement.setLong(12, protection.getLastAccessed());
+            bindProtection(statement, protection);
 
             statement.executeUpdate();
+            addToFilter(protection, null);
+        } catch (SQLException e) {
+            printException(e);
+        }
+    }
+
+    /**
+     * Save the modified columns of a protection to the database. If every column was modified the whole
+     * protection is written instead.
+     *
+     * @param protection
+     * @param columns the columns to write
+     */
+    public void saveProtection(Protection protection, Set<Protection.Column> columns) {
+        try {
+            writeProtection(protection, columns);
         } catch (SQLException e) {
+            // try again the next time it is saved. Done first, as printException may throw
+            protection.markDirty(columns);
             printException(e);
         }
     }
 
+    /**
+     * Write the modified columns of a protection to the database
+     *
+     * @param protection
+     * @param columns the columns to write
+     */
+    private void writeProtection(Protection protection, Set<Protection.Column> columns) throws SQLException {
+        PreparedStatement statement;
+
+        if (columns.size() == Protection.Column.values().length) {
+            statement = prepare("REPLACE INTO " + prefix + "protections (id, type, blockId, world, data, owner, password, x, y, z, date, last_accessed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            bindProtection(statement, protection);
+        } else {
+            statement = prepare(createUpdateQuery(columns));
+            bindColumns(statement, protection, columns);
+        }
+
+        statement.executeUpdate();
+        addToFilter(protection, columns);
+    }
+
+    /**
+     * Save the same modified columns of many protections to the database, sending them in batches. If a batch fails,
+     * the protections in it are saved one at a time instead. Rows that fail on their own are logged and marked as
+     * modified again, nothing is thrown.
+     *
+     * @param columns the columns to write, which were modified in each of the protections
+     * @param protections
+     * @param batchSize the amount of protections sent to the database at once
+     * @param failed the protections that could not be saved are added to this
+     * @return the amount of batches sent to the database
+     */
+    public int saveProtections(Set<Protection.Column> columns, List<Protection> protections, int batchSize, List<Protection> failed) {
+        boolean replace = columns.size() == Protection.Column.values().length;
+        String query = replace ? "REPLACE INTO " + prefix + "protections (id, type, blockId, world, data, owner, password, x, y, z, date, last_accessed) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" : createUpdateQuery(columns);
+        int batches = 0;
+
+        for (int offset = 0; offset < protections.size(); offset += batchSize) {
+            List<Protection> batch = protections.subList(offset, Math.min(offset + batchSize, protections.size()));
+            PreparedStatement statement = null;
+
+            try {
+                statement = prepare(query);
+
+                for (Protection protection : batch) {
+                    if (replace) {
+                        bindProtection(statement, protection);
+                    } else {
+                        bindColumns(statement, protection, columns);
+                    }
+
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                batches++;
+
+                for (Protection protection : batch) {
+                    addToFilter(protection, columns);
+                }
+            } catch (SQLException e) {
+                batchFailed(statement, e);
+
+                for (Protection protection : batch) {
+                    try {
+                        writeProtection(protection, columns);
+                    } catch (SQLException ex) {
+                        rowFailed("protection #" + protection.getId(), ex);
+                        protection.markDirty(columns);
+                        failed.add(protection);
+                    }
+                }
+            }
+        }
+
+        return batches;
+    }
+
+    /**
+     * Add the block of a saved protection to the protection filter if the save may have moved it
+     *
+     * @param protection
+     * @param columns the columns that were written, or null if the whole protection was written
+     */
+    private void addToFilter(Protection protection, Set<Protection.Column> columns) {
+        if (columns != null && !columns.contains(Protection.Column.WORLD) && !columns.contains(Protection.Column.X)
+                && !columns.contains(Protection.Column.Y) && !columns.contains(Protection.Column.Z)) {
+            return;
+        }
+
+        LWC.getInstance().getProtectionCache().getFilter().add(protection);
+    }
+
+    /**
+     * Create the query that updates the given columns of a protection
+     *
+     * @param columns
+     * @return
+     */
+    private String createUpdateQuery(Set<Protection.Column> columns) {
+        StringBuilder builder = new StringBuilder("UPDATE ").append(prefix).append("protections SET ");
+        boolean first = true;
+
+        for (Protection.Column column : columns) {
+            if (!first) {
+                builder.append(", ");
+            }
+
+            builder.append(column.getColumnName()).append(" = ?");
+            first = false;
+        }
+
+        return builder.append(" WHERE id = ?").toString();
+    }
+
+    /**
+     * Bind the given columns of a protection to a query created by {@link #createUpdateQuery(java.util.Set)}
+     *
+     * @param statement
+     * @param protection
+     * @param columns
+     */
+    private void bindColumns(PreparedStatement statement, Protection protection, Set<Protection.Column> columns) throws SQLException {
+        int index = 1;
+
+        for (Protection.Column column : columns) {
+            switch (column) {
+                case TYPE:
+                    statement.setInt(index++, protection.getType().ordinal());
+                    break;
+
+                case BLOCK_ID:
+                    statement.setInt(index++, protection.getBlockId());
+                    break;
+
+                case WORLD:
+                    statement.setString(index++, protection.getWorld());
+                    break;
+
+                case DATA:
+                    statement.setString(index++, encodeData(protection));
+                    break;
+
+                case OWNER:
+                    statement.setString(index++, protection.getOwner());
+                    break;
+
+                case PASSWORD:
+                    statement.setString(index++, protection.getPassword());
+                    break;
+
+                case X:
+                    statement.setInt(index++, protection.getX());
+                    break;
+
+                case Y:
+                    statement.setInt(index++, protection.getY());
+                    break;
+
+                case Z:
+                    statement.setInt(index++, protection.getZ());
+                    break;
+
+                case CREATION:
+                    statement.setString(index++, protection.getCreation());
+                    break;
+
+                case LAST_ACCESSED:
+                    statement.setLong(index++, protection.getLastAccessed());
+                    break;
+            }
+        }
+
+        statement.setInt(index, protection.getId());
+    }
+
+    /**
+     * Update the last accessed time of many protections, sending them in batches. If a batch fails, the protections
+     * in it are updated one at a time instead. Rows that fail on their own are logged, nothing is thrown.
+     *
+     * @param accesses the new last accessed time of each protection id
+     * @param batchSize the amount of protections sent to the database at once
+     * @param failed the last accessed times that could not be written are added to this
+     * @return the amount of batches sent to the database
+     */
+    public int updateLastAccessed(Map<Integer, Long> accesses, int batchSize, Map<Integer, Long> failed) {
+        List<Map.Entry<Integer, Long>> entries = new ArrayList<Map.Entry<Integer, Long>>(accesses.entrySet());
+        int batches = 0;
+
+        for (int offset = 0; offset < entries.size(); offset += batchSize) {
+            List<Map.Entry<Integer, Long>> batch = entries.subList(offset, Math.min(offset + batchSize, entries.size()));
+            PreparedStatement statement = null;
+
+            try {
+                statement = prepare("UPDATE " + prefix + "protections SET last_accessed = ? WHERE id = ?");
+
+                for (Map.Entry<Integer, Long> entry : batch) {
+                    statement.setLong(1, entry.getValue());
+                    statement.setInt(2, entry.getKey());
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                batches++;
+            } catch (SQLException e) {
+                batchFailed(statement, e);
+
+                for (Map.Entry<Integer, Long> entry : batch) {
+                    try {
+                        statement = prepare("UPDATE " + prefix + "protections SET last_accessed = ? WHERE id = ?");
+                        statement.setLong(1, entry.getValue());
+                        statement.setInt(2, entry.getKey());
+                        statement.executeUpdate();
+                    } catch (SQLException ex) {
+                        rowFailed("the last accessed time of protection #" + entry.getKey(), ex);
+                        failed.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+
+        return batches;
+    }
+
+    /**
+     * Bind a protection to a REPLACE INTO protections statement
+     *
+     * @param statement
+     * @param protection
+     */
+    private void bindProtection(PreparedStatement statement, Protection protection) throws SQLException {
+        statement.setInt(1, protection.getId());
+        statement.setInt(2, protection.getType().ordinal());
+        statement.setInt(3, protection.getBlockId());
+        statement.setString(4, protection.getWorld());
+        statement.setString(5, encodeData(protection));
+        statement.setString(6, protection.getOwner());
+        statement.setString(7, protection.getPassword());
+        statement.setInt(8, protection.getX());
+        statement.setInt(9, protection.getY());
+        statement.setInt(10, protection.getZ());
+        statement.setString(11, protection.getCreation());
+        statement.setLong(12, protection.getLastAccessed());
+    }
+
+    /**
+     * Report a batch that failed to execute and clear it, so its rows can be written one at a time instead. Unlike
+     * printException, this does not throw.
+     *
+     * @param statement
+     * @param exception
+     */
+    private void batchFailed(PreparedStatement statement, SQLException exception) {
+        if (exception instanceof CommunicationsException) {
+            // reconnects
+            printException(exception);
+        } else {
+            logger.warning("LWC: A batch failed, writing its rows one at a time: " + exception.getMessage());
+        }
+
+        clearBatch(statement);
+    }
+
+    /**
+     * Report a row of a failed batch that also failed on its own. Unlike printException, this does not throw, so the
+     * rest of the rows are still written.
+     *
+     * @param row what was being written
+     * @param exception
+     */
+    private void rowFailed(String row, SQLException exception) {
+        logger.warning("LWC: Failed to write " + row + ", it will be tried again: " + exception.getMessage());
+    }
+
+    /**
+     * Clear the batch of a statement that failed to execute
+     *
+     * @param statement
+     */
+    private void clearBatch(PreparedStatement statement) {
+        if (statement == null) {
+            return;
+        }
+
+        try {
+            statement.clearBatch();
+        } catch (SQLException e) {
+        }
+    }
+
     /**
      * Set the menu style for a place
      *
@@ -1614,6 +2418,51 @@ public class PhysDB extends Database {
         // removeProtectionHistory(protectionId);
     }
 
+    /**
+     * Remove many protections from the database, sending them in batches. If a batch fails, the protections
+     * in it are removed one at a time instead. Rows that fail on their own are logged, nothing is thrown.
+     *
+     * @param protectionIds
+     * @param batchSize the amount of protections sent to the database at once
+     * @param failed the ids of the protections that could not be removed are added to this
+     * @return the amount of batches sent to the database
+     */
+    public int removeProtections(List<Integer> protectionIds, int batchSize, List<Integer> failed) {
+        int batches = 0;
+
+        for (int offset = 0; offset < protectionIds.size(); offset += batchSize) {
+            List<Integer> batch = protectionIds.subList(offset, Math.min(offset + batchSize, protectionIds.size()));
+            PreparedStatement statement = null;
+
+            try {
+                statement = prepare("DELETE FROM " + prefix + "protections WHERE id = ?");
+
+                for (int protectionId : batch) {
+                    statement.setInt(1, protectionId);
+                    statement.addBatch();
+                }
+
+                statement.executeBatch();
+                batches++;
+            } catch (SQLException e) {
+                batchFailed(statement, e);
+
+                for (int protectionId : batch) {
+                    try {
+                        statement = prepare("DELETE FROM " + prefix + "protections WHERE id = ?");
+                        statement.setInt(1, protectionId);
+                        statement.executeUpdate();
+                    } catch (SQLException ex) {
+                        rowFailed("the removal of protection #" + protectionId, ex);
+                        failed.add(protectionId);
+                    }
+                }
+            }
+        }
+
+        return batches;
+    }
+
     public void removeProtectionHistory(int protectionId) {
         try {
             PreparedStatement statement = prepare("DELETE FROM " + prefix + "history WHERE protectionId = ?");
@@ -1641,9 +2490,13 @@ public class PhysDB extends Database {
      */
     public void removeAllProtections() {
         try {
-            Statement statement = connection.createStatement();
+            Statement statement = getConnection().createStatement();
             statement.executeUpdate("DELETE FROM " + prefix + "protections");
             statement.close();
+
+            // and forget about them
+            LWC.getInstance().getProtectionCache().clear();
+            protectionCounts.clear();
         } catch (SQLException e) {
             printException(e);
         }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.lwc.LWC;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs database lookups off of the main thread and hands their results back to the main thread, so lookups that
+ * are not needed right away do not make the server wait on the database
+ */
+public class DatabaseExecutor {
+
+    /**
+     * Logging instance
+     */
+    private Logger logger = Logger.getLogger("LWC");
+
+    /**
+     * The LWC object
+     */
+    private final LWC lwc;
+
+    /**
+     * The thread the lookups are run on
+     */
+    private final ExecutorService executor;
+
+    public DatabaseExecutor(LWC lwc) {
+        this.lwc = lwc;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "LWC Database Executor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Run a task on the database thread
+     *
+     * @param task
+     * @param callback called on the main thread in a later tick with the result of the task, unless the task failed.
+     *                 May be null
+     * @return the result of the task
+     */
+    public <T> Future<T> submit(final Callable<T> task, final Callback<T> callback) {
+        return executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                T result;
+
+                try {
+                    result = task.call();
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "LWC: Asynchronous database task failed", e);
+                    throw e;
+                }
+
+                deliver(result, callback);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Hand a result that is already known back the same way as the result of a task, so callers do not have to care
+     * if the database was needed or not
+     *
+     * @param result
+     * @param callback called on the main thread in a later tick with the result. May be null
+     * @return the result
+     */
+    public <T> Future<T> complete(final T result, Callback<T> callback) {
+        FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+            public T call() {
+                return result;
+            }
+        });
+
+        future.run();
+        deliver(result, callback);
+        return future;
+    }
+
+    /**
+     * Call a callback with a result on the main thread in the next tick
+     *
+     * @param result
+     * @param callback may be null
+     */
+    private <T> void deliver(final T result, final Callback<T> callback) {
+        if (callback == null) {
+            return;
+        }
+
+        lwc.getPlugin().getServer().getScheduler().scheduleSyncDelayedTask(lwc.getPlugin(), new Runnable() {
+            public void run() {
+                callback.call(result);
+            }
+        });
+    }
+
+    /**
+     * Stop accepting tasks and wait a moment for the queued tasks to finish
+     */
+    public void shutdown() {
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+        }
+    }
+
+}
@@ -25,28 +25,46 @@
  * authors and contributors and should not be interpreted as representing official policies,
  * either expressed or implied, of anybody else.
  */
-
 package com.griefcraft.util;
 
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
-import com.griefcraft.sql.Database;
+import com.griefcraft.sql.PhysDB;
 
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
 
 public class DatabaseThread implements Runnable {
 
+    private Logger logger = Logger.getLogger("LWC");
+
     /**
      * The LWC object
      */
     private final LWC lwc;
 
     /**
-     * The protections waiting to be updated in the database
+     * The protections waiting to be updated in the database, keyed by their id so a protection
+     * saved many times between flushes is only written once. Also guards the removal queue and
+     * is used to wake the thread up.
+     */
+    private final Map<Integer, Protection> updateQueue = new LinkedHashMap<Integer, Protection>();
+
+    /**
+     * The ids of the protections waiting to be removed from the database
      */
-    private final Queue<Protection> updateQueue = new LinkedBlockingQueue<Protection>();
+    private final List<Integer> removalQueue = new ArrayList<Integer>();
+
+    /**
+     * The last accessed time of protections that were opened, waiting to be written to the database. These are
+     * written on their own so that opening a protection does not rewrite the whole protection.
+     */
+    private final Map<Integer, Long> accessQueue = new HashMap<Integer, Long>();
 
     /**
      * The thread we are running in
@@ -56,17 +74,75 @@ public class DatabaseThread implements Runnable {
     /**
      * If the database thread is active and running
      */
-    private boolean running = false;
+    private volatile boolean running = false;
+
+    /**
+     * How long a change may wait before it is flushed, in milliseconds
+     */
+    private final long maxAge;
+
+    /**
+     * The amount of queued changes that causes a flush straight away
+     */
+    private final int flushSize;
+
+    /**
+     * The amount of queued changes at which the database is considered to be falling behind
+     */
+    private final int backlogSize;
+
+    /**
+     * The time the oldest change still in the queue was made, or -1 if the queue is empty
+     */
+    private long oldestChange = -1L;
+
+    /**
+     * If a flush was requested using {@link #flush()}
+     */
+    private boolean flushRequested = false;
+
+    /**
+     * If the queue is currently over the backlog size
+     */
+    private volatile boolean backedUp = false;
+
+    /**
+     * Held while the queues are being flushed to the database
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * The amount of flushes that wrote to the database
+     */
+    private volatile long flushes = 0L;
+
+    /**
+     * The amount of rows written or removed by flushes
+     */
+    private volatile long flushedRows = 0L;
+
+    /**
+     * The amount of statement batches sent to the database by flushes
+     */
+    private volatile long flushedBatches = 0L;
+
+    /**
+     * The total time spent flushing, in milliseconds
+     */
+    private volatile long flushTime = 0L;
 
     /**
-     * The last time the queue was flushed to the database
+     * The time the last flush took, in milliseconds
      */
-    private long lastFlush = -1L;
+    private volatile long lastFlushTime = 0L;
 
     public DatabaseThread(LWC lwc) {
         this.lwc = lwc;
+        this.maxAge = Math.max(1, lwc.getConfiguration().getInt("core.flushInterval", 10)) * 1000L;
+        this.flushSize = Math.max(1, lwc.getConfiguration().getInt("core.flushQueueSize", 250));
+        this.backlogSize = Math.max(flushSize, lwc.getConfiguration().getInt("core.flushBacklog", 5000));
         this.running = true;
-        this.lastFlush = System.currentTimeMillis();
+        this.thread.setName("LWC Database Thread");
         this.thread.start();
     }
 
@@ -76,7 +152,10 @@ public class DatabaseThread implements Runnable {
      * @param protection
      */
     public void addProtection(Protection protection) {
-        updateQueue.offer(protection);
+        synchronized (updateQueue) {
+            updateQueue.put(protection.getId(), protection);
+            changed();
+        }
     }
 
     /**
@@ -85,7 +164,46 @@ public class DatabaseThread implements Runnable {
      * @param protection
      */
     public void removeProtection(Protection protection) {
-        updateQueue.remove(protection);
+        synchronized (updateQueue) {
+            updateQueue.remove(protection.getId());
+            accessQueue.remove(protection.getId());
+        }
+    }
+
+    /**
+     * Queue the last accessed time of a protection to be written to the database
+     *
+     * @param protectionId
+     * @param lastAccessed
+     */
+    public void addAccess(int protectionId, long lastAccessed) {
+        synchronized (updateQueue) {
+            accessQueue.put(protectionId, lastAccessed);
+            changed();
+        }
+    }
+
+    /**
+     * Adds a protection id to the removal queue so that it is removed from the database asap
+     *
+     * @param protectionId
+     */
+    public void addRemoval(int protectionId) {
+        synchronized (updateQueue) {
+            removalQueue.add(protectionId);
+            changed();
+        }
+    }
+
+    /**
+     * Gets the current amount of protections queued to be removed
+     *
+     * @return the amount of protections queued to be removed
+     */
+    public int removalSize() {
+        synchronized (updateQueue) {
+            return removalQueue.size();
+        }
     }
 
     /**
@@ -94,7 +212,65 @@ public class DatabaseThread implements Runnable {
      * @return the amount of protections queued to be updated
      */
     public int size() {
-        return updateQueue.size();
+        synchronized (updateQueue) {
+            return updateQueue.size();
+        }
+    }
+
+    /**
+     * Gets the current amount of last accessed times queued to be written
+     *
+     * @return the amount of last accessed times queued to be written
+     */
+    public int accessSize() {
+        synchronized (updateQueue) {
+            return accessQueue.size();
+        }
+    }
+
+    /**
+     * Check if changes are being queued faster than the database can write them. Anything that is about to
+     * queue a large amount of changes should hold off while this is true.
+     *
+     * @return true if the queue is over core.flushBacklog
+     */
+    public boolean isBackedUp() {
+        return backedUp;
+    }
+
+    /**
+     * @return the amount of flushes that wrote to the database
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return the amount of rows written or removed by flushes
+     */
+    public long getFlushedRows() {
+        return flushedRows;
+    }
+
+    /**
+     * @return the amount of statement batches sent to the database by flushes
+     */
+    public long getFlushedBatches() {
+        return flushedBatches;
+    }
+
+    /**
+     * @return the total time spent flushing, in milliseconds
+     */
+    public long getFlushTime() {
+        return flushTime;
+    }
+
+    /**
+     * @return the time the last flush took, in milliseconds
+     */
+    public long getLastFlushTime() {
+        return lastFlushTime;
     }
 
     /**
@@ -112,56 +288,212 @@ public class DatabaseThread implements Runnable {
     }
 
     /**
-     * Recommend a flush as soon as possible. This does not guarantee the database will be flushed immediately.
+     * Request a flush as soon as possible. The flush happens on the database thread, so this does not wait for it.
      */
     public void flush() {
-        lastFlush = System.currentTimeMillis() - 9999999L;
+        synchronized (updateQueue) {
+            flushRequested = true;
+            updateQueue.notify();
+        }
+    }
+
+    /**
+     * Flush everything queued to the database on the calling thread, and wait for it to finish. This should be used
+     * before the database itself is queried for something that may still be queued.
+     */
+    public void flushNow() {
+        flushDatabase();
+    }
+
+    /**
+     * @return the amount of queued changes. Must be called with the queue lock held.
+     */
+    private int pending() {
+        return updateQueue.size() + removalQueue.size() + accessQueue.size();
+    }
+
+    /**
+     * Called with the queue lock held whenever a change is queued
+     */
+    private void changed() {
+        int pending = pending();
+
+        // the queue was empty, so the thread is waiting without a deadline. Wake it up so it waits for this change
+        if (oldestChange == -1L) {
+            oldestChange = System.currentTimeMillis();
+            updateQueue.notify();
+        }
+
+        if (pending >= backlogSize && !backedUp) {
+            backedUp = true;
+            logger.warning("LWC: Database writes are falling behind: " + pending + " changes queued, the last flush took " + lastFlushTime + "ms");
+        }
+
+        // wake the thread up if the queue is large enough to be flushed
+        if (pending == flushSize) {
+            updateQueue.notify();
+        }
+    }
+
+    /**
+     * Check if the queue should be flushed. Must be called with the queue lock held.
+     *
+     * @return the amount of milliseconds until the queue should be flushed, or 0 to flush now. -1 if the queue is empty
+     */
+    private long timeUntilFlush() {
+        if (flushRequested || pending() >= flushSize) {
+            return 0L;
+        }
+
+        if (oldestChange == -1L) {
+            return -1L;
+        }
+
+        return Math.max(0L, oldestChange + maxAge - System.currentTimeMillis());
     }
 
     /**
      * Flush the protections to the database
      */
     private void flushDatabase() {
-        if (!updateQueue.isEmpty()) {
+        synchronized (flushLock) {
+            List<Protection> updates;
+            List<Integer> removals;
+            Map<Integer, Long> accesses;
+
             synchronized (updateQueue) {
-                Database database = lwc.getPhysicalDatabase();
-                database.setAutoCommit(false);
-
-                // Begin iterating through the queue
-                Iterator<Protection> iter = updateQueue.iterator();
-                while (iter.hasNext()) {
-                    Protection protection = iter.next();
-                    iter.remove();
-                    protection.saveNow();
+                updates = new ArrayList<Protection>(updateQueue.values());
+                removals = new ArrayList<Integer>(removalQueue);
+                accesses = new HashMap<Integer, Long>(accessQueue);
+                updateQueue.clear();
+                removalQueue.clear();
+                accessQueue.clear();
+                oldestChange = -1L;
+                flushRequested = false;
+            }
+
+            if (!updates.isEmpty() || !removals.isEmpty() || !accesses.isEmpty()) {
+                long start = System.currentTimeMillis();
+                int batchSize = Math.max(1, lwc.getConfiguration().getInt("core.flushBatchSize", 100));
+
+                // only the columns that were actually modified are written, and protections
+                // with the same modified columns are written together
+                Map<Set<Protection.Column>, List<Protection>> modified = new HashMap<Set<Protection.Column>, List<Protection>>();
+                int modifiedCount = 0;
+
+                for (Protection protection : updates) {
+                    Set<Protection.Column> columns = protection.prepareSave();
+
+                    if (columns.isEmpty()) {
+                        continue;
+                    }
+
+                    List<Protection> group = modified.get(columns);
+
+                    if (group == null) {
+                        group = new ArrayList<Protection>();
+                        modified.put(columns, group);
+                    }
+
+                    group.add(protection);
+                    modifiedCount++;
+
+                    // the last accessed time is already being written
+                    if (columns.contains(Protection.Column.LAST_ACCESSED)) {
+                        accesses.remove(protection.getId());
+                    }
                 }
 
-                // Commit the changes to the database
-                database.setAutoCommit(true);
-            }
-        }
+                // protections that were removed do not need to be touched
+                for (Integer protectionId : removals) {
+                    accesses.remove(protectionId);
+                }
 
-        // update the time we last flushed at
-        lastFlush = System.currentTimeMillis();
-    }
+                PhysDB database = lwc.getPhysicalDatabase();
+                int batches = 0;
 
-    public void run() {
-        while (running) {
-            // how many seconds between each flush
-            int interval = lwc.getConfiguration().getInt("core.flushInterval", 5);
+                // rows that could not be written on their own, which are queued again
+                List<Protection> failedUpdates = new ArrayList<Protection>();
+                Map<Integer, Long> failedAccesses = new HashMap<Integer, Long>();
+                List<Integer> failedRemovals = new ArrayList<Integer>();
+
+                // write on the reserved connection so the transaction never holds queries of other threads
+                database.beginWrite();
+
+                try {
+                    database.setAutoCommit(false);
+
+                    for (Map.Entry<Set<Protection.Column>, List<Protection>> entry : modified.entrySet()) {
+                        batches += database.saveProtections(entry.getKey(), entry.getValue(), batchSize, failedUpdates);
+                    }
+
+                    batches += database.updateLastAccessed(accesses, batchSize, failedAccesses);
+                    batches += database.removeProtections(removals, batchSize, failedRemovals);
+                } finally {
+                    // Commit the changes to the database, even the ones written before something failed
+                    database.setAutoCommit(true);
+                    database.endWrite();
+                }
 
-            long currentTime = System.currentTimeMillis();
-            long intervalMilliseconds = interval * 1000L;
+                // save() skips protections that were removed since, which must not be written again
+                for (Protection protection : failedUpdates) {
+                    protection.save();
+                }
+
+                for (Map.Entry<Integer, Long> entry : failedAccesses.entrySet()) {
+                    addAccess(entry.getKey(), entry.getValue());
+                }
+
+                for (Integer protectionId : failedRemovals) {
+                    addRemoval(protectionId);
+                }
 
-            // compare the current time to the last flush
-            if (currentTime - lastFlush > intervalMilliseconds) {
-                flushDatabase();
+                // history is saved on its own
+                for (Protection protection : updates) {
+                    protection.checkAndSaveHistory();
+                }
+
+                lastFlushTime = System.currentTimeMillis() - start;
+                flushTime += lastFlushTime;
+                flushedRows += modifiedCount + accesses.size() + removals.size();
+                flushedBatches += batches;
+                flushes++;
+            }
+
+            // whatever was queued while flushing is checked again
+            synchronized (updateQueue) {
+                if (backedUp && pending() < backlogSize) {
+                    backedUp = false;
+                    logger.info("LWC: Database writes have caught up");
+                }
             }
+        }
+    }
 
+    public void run() {
+        while (running) {
             try {
-                Thread.sleep(1000L);
+                synchronized (updateQueue) {
+                    long wait;
+
+                    // sleep until the queue is old enough or large enough to be flushed, or a flush is requested
+                    while (running && (wait = timeUntilFlush()) != 0L) {
+                        updateQueue.wait(wait == -1L ? 0L : wait);
+                    }
+                }
             } catch (InterruptedException e) {
                 running = false;
             }
+
+            if (running) {
+                try {
+                    flushDatabase();
+                } catch (Exception e) {
+                    // keep the thread alive for the next flush
+                    logger.severe("LWC: Failed to flush the database: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
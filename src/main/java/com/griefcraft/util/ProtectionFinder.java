@@ -28,15 +28,19 @@
 
 package com.griefcraft.util;
 
+import com.griefcraft.cache.ProtectionCache;
 import com.griefcraft.lwc.LWC;
 import com.griefcraft.model.Protection;
 import com.griefcraft.util.matchers.DoorMatcher;
 import com.griefcraft.util.matchers.DoubleChestMatcher;
 import com.griefcraft.util.matchers.GravityMatcher;
 import com.griefcraft.util.matchers.WallMatcher;
+import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -59,6 +63,44 @@ public class ProtectionFinder {
         PROTECTION_MATCHERS.add(new GravityMatcher());
     }
 
+    /**
+     * Block ids the matchers can link to a protection when they are the base block, even if they are not protectable
+     */
+    private static final BitSet LINKED_BASE = new BitSet();
+
+    /**
+     * Block ids the matchers can link to a protection when they are above the base block
+     */
+    private static final BitSet LINKED_ABOVE = new BitSet();
+
+    /**
+     * Block ids the matchers can link to a protection when they are next to the base block
+     */
+    private static final BitSet LINKED_SIDE = new BitSet();
+
+    static {
+        addMaterials(LINKED_BASE, DoubleChestMatcher.PROTECTABLES_CHESTS);
+        addMaterials(LINKED_BASE, DoorMatcher.PROTECTABLES_DOORS);
+        addMaterials(LINKED_BASE, DoorMatcher.PRESSURE_PLATES);
+
+        addMaterials(LINKED_ABOVE, DoorMatcher.PROTECTABLES_DOORS);
+        addMaterials(LINKED_ABOVE, DoorMatcher.PRESSURE_PLATES);
+        addMaterials(LINKED_ABOVE, GravityMatcher.PROTECTABLES_POSTS);
+
+        addMaterials(LINKED_SIDE, WallMatcher.PROTECTABLES_WALL);
+        addMaterials(LINKED_SIDE, WallMatcher.PROTECTABLES_LEVERS_ET_AL);
+        addMaterials(LINKED_SIDE, WallMatcher.PROTECTABLES_WALL_REVERSE);
+    }
+
+    /**
+     * The blocks around the base block (x, y, z offsets) the matchers may look at. Used to load them all at once.
+     */
+    private static final int[][] GATHER_OFFSETS = new int[][] {
+            { 0, 0, 0 }, { 1, 0, 0 }, { -1, 0, 0 }, { 0, 0, 1 }, { 0, 0, -1 },
+            { 0, 1, 0 }, { 1, 1, 0 }, { -1, 1, 0 }, { 0, 1, 1 }, { 0, 1, -1 }, { 0, 2, 0 },
+            { 0, -1, 0 }, { 1, -1, 0 }, { -1, -1, 0 }, { 0, -1, 1 }, { 0, -1, -1 }
+    };
+
     /**
      * The LWC object to work with
      */
@@ -89,8 +131,144 @@ public class ProtectionFinder {
      */
     private final Set<Block> protectables = new HashSet<Block>();
 
+    /**
+     * If the blocks the matchers may look at should be loaded with one query before matching
+     */
+    private final boolean gather;
+
+    /**
+     * The protections that were already loaded around the base block, if any
+     */
+    private ProtectionRegion region = null;
+
+    /**
+     * If blocks should only be looked up in the cache, never in the database
+     */
+    private boolean cacheOnly = false;
+
+    /**
+     * True if a block could not be looked up because it was not in the cache
+     */
+    private boolean incomplete = false;
+
+    /**
+     * The finder this finder was forked from, if any
+     */
+    private ProtectionFinder parent = null;
+
     public ProtectionFinder(LWC lwc) {
+        this(lwc, false);
+    }
+
+    /**
+     * @param lwc
+     * @param gather true to load every block the matchers may look at with one query before matching, so the
+     *               matchers only have to check the cache. Must not be used where the database cannot be used.
+     */
+    public ProtectionFinder(LWC lwc, boolean gather) {
         this.lwc = lwc;
+        this.gather = gather;
+    }
+
+    /**
+     * Check if a protection could possibly be found for the block without looking at the database or the cache.
+     * Only the type of the block and the types of the blocks the matchers look at are checked, so if this
+     * returns false the block can be skipped entirely.
+     *
+     * @param lwc
+     * @param block
+     * @return
+     */
+    public static boolean canMatch(LWC lwc, Block block) {
+        int type = block.getTypeId();
+
+        if (lwc.getProtectableMaterials().get(type) || LINKED_BASE.get(type)) {
+            return true;
+        }
+
+        World world = block.getWorld();
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+
+        if (LINKED_ABOVE.get(world.getBlockTypeIdAt(x, y + 1, z))) {
+            return true;
+        }
+
+        return LINKED_SIDE.get(world.getBlockTypeIdAt(x + 1, y, z)) || LINKED_SIDE.get(world.getBlockTypeIdAt(x - 1, y, z))
+                || LINKED_SIDE.get(world.getBlockTypeIdAt(x, y, z + 1)) || LINKED_SIDE.get(world.getBlockTypeIdAt(x, y, z - 1));
+    }
+
+    /**
+     * Look up blocks inside of the region in memory instead of using the cache or the database
+     *
+     * @param region the protections around the blocks that will be matched, or null to not use a region
+     */
+    public void setRegion(ProtectionRegion region) {
+        this.region = region;
+    }
+
+    /**
+     * Only look up blocks in the cache, so matching never waits on the database. Blocks that are neither cached nor
+     * known to not be protected make {@link #isIncomplete()} return true.
+     *
+     * @param cacheOnly
+     */
+    public void setCacheOnly(boolean cacheOnly) {
+        this.cacheOnly = cacheOnly;
+    }
+
+    /**
+     * @return true if the finder is cache only and a block it needed was not in the cache
+     */
+    public boolean isIncomplete() {
+        return incomplete;
+    }
+
+    /**
+     * Create a finder for matching another block on behalf of this one. It looks blocks up the same way this finder
+     * does, and a block it cannot look up makes this finder incomplete too.
+     *
+     * @return
+     */
+    public ProtectionFinder fork() {
+        ProtectionFinder finder = new ProtectionFinder(lwc);
+        finder.region = region;
+        finder.cacheOnly = cacheOnly;
+        finder.parent = this;
+        return finder;
+    }
+
+    /**
+     * Get the blocks around a base block that the matchers may look at and that could be protected, judging by their
+     * types. This only reads the world, never the cache or the database.
+     *
+     * @param lwc
+     * @param baseBlock
+     * @return
+     */
+    public static List<Block> getCandidates(LWC lwc, Block baseBlock) {
+        World world = baseBlock.getWorld();
+        BitSet protectables = lwc.getProtectableMaterials();
+        List<Block> candidates = new ArrayList<Block>();
+
+        for (int[] offset : GATHER_OFFSETS) {
+            int y = baseBlock.getY() + offset[1];
+
+            if (y < 0 || y >= world.getMaxHeight()) {
+                continue;
+            }
+
+            int x = baseBlock.getX() + offset[0];
+            int z = baseBlock.getZ() + offset[2];
+            int type = world.getBlockTypeIdAt(x, y, z);
+
+            if (protectables.get(type) || LINKED_BASE.get(type) || LINKED_ABOVE.get(type) || LINKED_SIDE.get(type)) {
+                candidates.add(world.getBlockAt(x, y, z));
+            }
+        }
+
+        return candidates;
     }
 
     /**
@@ -109,6 +287,10 @@ public class ProtectionFinder {
         this.reset();
         this.baseBlock = baseBlock;
 
+        if (gather && region == null && !cacheOnly) {
+            gatherBlocks(baseBlock);
+        }
+
         // If the base block is protectable, try it
         blocks.add(baseBlock);
         if (lwc.isProtectable(baseBlock) && !DoorMatcher.PROTECTABLES_DOORS.contains(baseBlock.getType())) {
@@ -171,7 +353,27 @@ public class ProtectionFinder {
      * @return
      */
     public boolean tryLoadProtection(Block block) {
-        Protection protection = lwc.getPhysicalDatabase().loadProtection(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+        String world = block.getWorld().getName();
+        Protection protection;
+
+        if (region != null && region.contains(world, block.getX(), block.getY(), block.getZ())) {
+            // every protection in the region is already loaded
+            protection = region.getProtection(block.getX(), block.getY(), block.getZ());
+        } else if (!lwc.getProtectionCache().getFilter().mightContain(world, block.getX(), block.getY(), block.getZ())) {
+            // most blocks are not protected, and the filter knows that without the cache or the database
+            return false;
+        } else if (cacheOnly) {
+            ProtectionCache cache = lwc.getProtectionCache();
+            protection = cache.getProtection(world, block.getX(), block.getY(), block.getZ());
+
+            if (protection == null && !cache.isKnownNull(world, block.getX(), block.getY(), block.getZ())) {
+                for (ProtectionFinder finder = this; finder != null; finder = finder.parent) {
+                    finder.incomplete = true;
+                }
+            }
+        } else {
+            protection = lwc.getPhysicalDatabase().loadProtection(world, block.getX(), block.getY(), block.getZ());
+        }
 
         if (protection != null) {
             protection.setProtectionFinder(this);
@@ -245,6 +447,33 @@ public class ProtectionFinder {
         }
     }
 
+    /**
+     * Load the protections on every block around the base block that the matchers may look at with one query.
+     * The protections and the blocks that are not protected end up in the cache, where the matchers find them.
+     *
+     * @param baseBlock
+     */
+    private void gatherBlocks(Block baseBlock) {
+        List<Block> candidates = getCandidates(lwc, baseBlock);
+
+        // a single block is loaded just as fast by the matchers themselves
+        if (candidates.size() > 1) {
+            lwc.getPhysicalDatabase().loadProtections(baseBlock.getWorld().getName(), candidates);
+        }
+    }
+
+    /**
+     * Add the ids of the given materials to a set of block ids
+     *
+     * @param ids
+     * @param materials
+     */
+    private static void addMaterials(BitSet ids, Set<Material> materials) {
+        for (Material material : materials) {
+            ids.set(material.getId());
+        }
+    }
+
     /**
      * Matches protections
      */
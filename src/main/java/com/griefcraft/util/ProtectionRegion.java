@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.cache.LongHashMap;
+import com.griefcraft.model.Protection;
+
+import java.util.Collection;
+
+/**
+ * Every protection inside of a box of blocks, loaded at once. A ProtectionFinder given a region looks up blocks
+ * inside of it in memory instead of using the cache or the database.
+ */
+public class ProtectionRegion {
+
+    /**
+     * The world the region is in
+     */
+    private final String world;
+
+    /**
+     * The bounds of the region, inclusive
+     */
+    private final int minX, maxX, minY, maxY, minZ, maxZ;
+
+    /**
+     * The protections in the region, keyed by their packed coordinates (LongHashMap.pack())
+     */
+    private final LongHashMap<Protection> protections;
+
+    public ProtectionRegion(String world, int minX, int maxX, int minY, int maxY, int minZ, int maxZ, Collection<Protection> protections) {
+        this.world = world;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.minZ = minZ;
+        this.maxZ = maxZ;
+        this.protections = new LongHashMap<Protection>(protections.size());
+
+        for (Protection protection : protections) {
+            this.protections.put(LongHashMap.pack(protection.getX(), protection.getY(), protection.getZ()), protection);
+        }
+    }
+
+    /**
+     * Check if a block is inside of the region
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean contains(String world, int x, int y, int z) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ && this.world.equals(world);
+    }
+
+    /**
+     * Get the protection on a block inside of the region
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return the protection, or null if the block is not protected
+     */
+    public Protection getProtection(int x, int y, int z) {
+        return protections.get(LongHashMap.pack(x, y, z));
+    }
+
+    /**
+     * @return the amount of protections in the region
+     */
+    public int size() {
+        return protections.size();
+    }
+
+}
@@ -128,6 +128,9 @@ public class Statistics {
         sender.sendMessage("  Engine: " + Colors.Green + Database.DefaultType);
         sender.sendMessage("  Protections: " + Colors.Green + formatNumber(lwc.getPhysicalDatabase().getProtectionCount()));
         sender.sendMessage("  Queries: " + Colors.Green + formatNumber(queries) + " | " + String.format("%.2f", getAverage(queries)) + " / second");
+
+        DatabaseThread databaseThread = lwc.getDatabaseThread();
+        sender.sendMessage("  Flushes: " + Colors.Green + formatNumber(databaseThread.getFlushes()) + Colors.White + " | " + formatNumber(databaseThread.getFlushedRows()) + " rows in " + formatNumber(databaseThread.getFlushedBatches()) + " batches | " + formatNumber(databaseThread.getFlushTime()) + "ms total, " + formatNumber(databaseThread.getLastFlushTime()) + "ms last" + (databaseThread.isBackedUp() ? Colors.Red + " | falling behind" : ""));
         sender.sendMessage(" ");
 
         sender.sendMessage(Colors.Red + " ==== Cache ==== ");
@@ -135,6 +138,10 @@ public class Statistics {
         sender.sendMessage("  Refs: " + cache.size() + "/" + cache.capacity());
         sender.sendMessage("  Reads: " + formatNumber(cache.getReads()) + " | " + String.format("%.2f", getAverage(cache.getReads())) + " / second");
         sender.sendMessage("  Writes: " + formatNumber(cache.getWrites()) + " | " + String.format("%.2f", getAverage(cache.getWrites())) + " / second");
+
+        if (cache.isResident()) {
+            sender.sendMessage("  Storage: " + Colors.Green + "memory" + Colors.White + " | ~" + formatNumber(cache.getBytesPerProtection()) + " bytes / protection | " + formatNumber(lwc.getDatabaseThread().size() + lwc.getDatabaseThread().removalSize() + lwc.getDatabaseThread().accessSize()) + " pending writes");
+        }
     }
 
     /**
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util.config;
+
+import java.util.Map;
+
+/**
+ * The resolved protection configuration (protections.blocks.<block>.<node> falling back to protections.<node>) of
+ * one block type. The values are resolved once when the configuration is loaded so that the event listeners do not
+ * have to look them up in the configuration every time.
+ */
+public class BlockProtectionConfig {
+
+    /**
+     * Every resolved node and its value
+     */
+    private final Map<String, String> values;
+
+    /**
+     * If the block can be protected
+     */
+    private final boolean enabled;
+
+    /**
+     * If creation messages and protection notices are not shown
+     */
+    private final boolean quiet;
+
+    /**
+     * If LWC lets the block be destroyed
+     */
+    private final boolean ignoreBlockDestruction;
+
+    /**
+     * If LWC ignores left clicks on the block
+     */
+    private final boolean ignoreLeftClick;
+
+    /**
+     * If LWC ignores right clicks on the block
+     */
+    private final boolean ignoreRightClick;
+
+    /**
+     * If LWC lets explosions destroy the block
+     */
+    private final boolean ignoreExplosions;
+
+    /**
+     * If redstone is blocked by default
+     */
+    private final boolean denyRedstone;
+
+    /**
+     * The type of protection the block is registered as when it is placed
+     */
+    private final String autoRegister;
+
+    public BlockProtectionConfig(Map<String, String> values) {
+        this.values = values;
+        this.enabled = Boolean.parseBoolean(values.get("enabled"));
+        this.quiet = Boolean.parseBoolean(values.get("quiet"));
+        this.ignoreBlockDestruction = Boolean.parseBoolean(values.get("ignoreBlockDestruction"));
+        this.ignoreLeftClick = Boolean.parseBoolean(values.get("ignoreLeftClick"));
+        this.ignoreRightClick = Boolean.parseBoolean(values.get("ignoreRightClick"));
+        this.ignoreExplosions = Boolean.parseBoolean(values.get("ignoreExplosions"));
+        this.denyRedstone = Boolean.parseBoolean(values.get("denyRedstone"));
+        this.autoRegister = values.get("autoRegister");
+    }
+
+    /**
+     * Get the value of a node
+     *
+     * @param node
+     * @return the value, or null if it is not set
+     */
+    public String get(String node) {
+        return values.get(node);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    public boolean ignoreBlockDestruction() {
+        return ignoreBlockDestruction;
+    }
+
+    public boolean ignoreLeftClick() {
+        return ignoreLeftClick;
+    }
+
+    public boolean ignoreRightClick() {
+        return ignoreRightClick;
+    }
+
+    public boolean ignoreExplosions() {
+        return ignoreExplosions;
+    }
+
+    public boolean denyRedstone() {
+        return denyRedstone;
+    }
+
+    public String getAutoRegister() {
+        return autoRegister;
+    }
+
+}
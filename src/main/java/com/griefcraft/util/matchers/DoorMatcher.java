@@ -28,7 +28,6 @@
 
 package com.griefcraft.util.matchers;
 
-import com.griefcraft.lwc.LWC;
 import com.griefcraft.util.ProtectionFinder;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
@@ -71,7 +70,7 @@ public class DoorMatcher implements ProtectionFinder.Matcher {
                 }
 
                 // create a protection finder
-                ProtectionFinder doorFinder = new ProtectionFinder(LWC.getInstance());
+                ProtectionFinder doorFinder = finder.fork();
 
                 // attempt to match the door
                 if (doorFinder.matchBlocks(relative)) {
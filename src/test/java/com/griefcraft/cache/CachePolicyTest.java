@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.cache;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays the same trace of lookups through each cache policy and compares how many of them were hits
+ */
+public class CachePolicyTest {
+
+    /**
+     * The amount of keys the cache may hold
+     */
+    private static final int CAPACITY = 2000;
+
+    /**
+     * The amount of lookups in the trace
+     */
+    private static final int LOOKUPS = 500000;
+
+    /**
+     * How often a scan over keys that are used only once is made, in lookups
+     */
+    private static final int SCAN_INTERVAL = 20000;
+
+    /**
+     * The amount of keys in each scan
+     */
+    private static final int SCAN_SIZE = 5000;
+
+    /**
+     * How much higher the hit rate of tinylfu must be than the one of lru on the trace (0.1 = 10 percentage points)
+     */
+    private static final double MIN_IMPROVEMENT = 0.05;
+
+    @Test
+    public void tinyLFUSurvivesScans() {
+        int[] trace = createTrace(new Random(42L));
+
+        double lru = replay(new LRUPolicy<Integer>(CAPACITY), trace);
+        double tinyLFU = replay(new TinyLFUPolicy<Integer>(CAPACITY), trace);
+
+        // tinylfu keeps the hot keys through the scans, lru loses them to every scan
+        String message = String.format("hit rate: lru %.1f%%, tinylfu %.1f%%", lru * 100, tinyLFU * 100);
+        assertTrue(message, tinyLFU - lru >= MIN_IMPROVEMENT);
+    }
+
+    @Test
+    public void keysFitInCapacity() {
+        TinyLFUPolicy<Integer> policy = new TinyLFUPolicy<Integer>(CAPACITY);
+        replay(policy, createTrace(new Random(7L)));
+
+        assertTrue(policy.size() <= CAPACITY);
+        assertTrue(policy.keys().size() == policy.size());
+    }
+
+    /**
+     * Create a trace of lookups: a hot set of keys used over and over, broken up by scans over keys that are
+     * never used again (e.g a cleanup or /lwc admin find)
+     *
+     * @param random
+     * @return
+     */
+    private int[] createTrace(Random random) {
+        int[] trace = new int[LOOKUPS];
+        int nextScanKey = 1000000;
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (i % SCAN_INTERVAL < SCAN_SIZE) {
+                trace[i] = nextScanKey++;
+            } else {
+                trace[i] = (int) Math.abs(random.nextGaussian() * CAPACITY);
+            }
+        }
+
+        return trace;
+    }
+
+    /**
+     * Replay a trace through a policy the way ProtectionCache uses it
+     *
+     * @param policy
+     * @param trace
+     * @return the fraction of lookups that were hits
+     */
+    private double replay(CachePolicy<Integer> policy, int[] trace) {
+        Set<Integer> cached = new HashSet<Integer>();
+        int hits = 0;
+
+        for (int key : trace) {
+            if (cached.contains(key)) {
+                policy.access(key);
+                hits++;
+                continue;
+            }
+
+            Integer evicted = policy.add(key);
+
+            if (evicted == null || !evicted.equals(key)) {
+                cached.add(key);
+            }
+
+            if (evicted != null) {
+                cached.remove(evicted);
+            }
+        }
+
+        return (double) hits / trace.length;
+    }
+
+}
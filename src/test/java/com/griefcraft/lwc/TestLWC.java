@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.lwc;
+
+import com.griefcraft.sql.PhysDB;
+import com.griefcraft.util.DatabaseThread;
+import com.griefcraft.util.config.Configuration;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Creates an LWC instance without a server: the configuration is read from config/core.yml and the database is
+ * given by the test. The Bukkit server that is used knows no players or worlds.
+ */
+public class TestLWC {
+
+    /**
+     * Create an LWC instance. {@link #start(LWC, com.griefcraft.sql.PhysDB)} should be called next, as the database
+     * can only be created once LWC exists.
+     *
+     * @param settings config values that replace the ones in config/core.yml
+     * @return
+     */
+    public static LWC create(Map<String, Object> settings) throws IOException {
+        File file = new File("config/core.yml");
+        Configuration configuration = new Configuration(file) {
+        };
+
+        configuration.load(new FileInputStream(file));
+
+        for (Map.Entry<String, Object> setting : settings.entrySet()) {
+            configuration.setProperty(setting.getKey(), setting.getValue());
+        }
+
+        Configuration.getLoaded().clear();
+        Configuration.getLoaded().put("core.yml", configuration);
+
+        if (Bukkit.getServer() == null) {
+            Bukkit.setServer(createServer());
+        }
+
+        return new LWC(null);
+    }
+
+    /**
+     * Give LWC its database and start the database thread
+     *
+     * @param lwc
+     * @param database
+     */
+    public static void start(LWC lwc, PhysDB database) throws Exception {
+        set(lwc, "physicalDatabase", database);
+        set(lwc, "databaseThread", new DatabaseThread(lwc));
+    }
+
+    /**
+     * Stop the database thread
+     *
+     * @param lwc
+     */
+    public static void stop(LWC lwc) {
+        if (lwc != null && lwc.getDatabaseThread() != null) {
+            lwc.getDatabaseThread().stop();
+        }
+
+        Configuration.getLoaded().clear();
+    }
+
+    /**
+     * Create a server that answers every call with null, apart from the calls made when it is set
+     *
+     * @return
+     */
+    private static Server createServer() {
+        return (Server) Proxy.newProxyInstance(TestLWC.class.getClassLoader(), new Class[] { Server.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getLogger")) {
+                    return Logger.getLogger("Minecraft");
+                } else if (method.getReturnType() == String.class) {
+                    return "Test";
+                } else if (method.getReturnType() == boolean.class) {
+                    return false;
+                } else if (method.getReturnType() == int.class) {
+                    return 0;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Set a field of LWC that is normally set when it is loaded
+     *
+     * @param lwc
+     * @param name
+     * @param value
+     */
+    private static void set(LWC lwc, String name, Object value) throws Exception {
+        Field field = LWC.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(lwc, value);
+    }
+
+}
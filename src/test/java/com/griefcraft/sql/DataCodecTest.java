@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.sql;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DataCodecTest {
+
+    /**
+     * The data of a protection shared with two players and a group, with one flag
+     */
+    private static final String TYPICAL = "{\"rights\":[{\"name\":\"Notch\",\"type\":1,\"rights\":1},{\"name\":\"jeb_\",\"type\":1,\"rights\":2},"
+            + "{\"name\":\"builders\",\"type\":0,\"rights\":1}],\"flags\":[{\"id\":2,\"data\":[]}]}";
+
+    @Test
+    public void roundTrip() throws Exception {
+        assertRoundTrip(TYPICAL);
+        assertRoundTrip("{}");
+        assertRoundTrip("{\"rights\":[],\"flags\":[]}");
+        assertRoundTrip("{\"a\":null,\"b\":true,\"c\":false,\"d\":-1,\"e\":9223372036854775807,\"f\":-9223372036854775808,\"g\":1.5}");
+        assertRoundTrip("{\"name\":\"\\u00e9\\u4e2d\\ud83d\\ude00\",\"nested\":{\"list\":[[1,2],[\"name\",\"name\"],{}]}}");
+    }
+
+    @Test
+    public void smallerThanJson() throws Exception {
+        // the base64 text is still about a third smaller than the json for protections like these
+        assertSmaller("{\"rights\":[],\"flags\":[]}");
+        assertSmaller("{\"rights\":[{\"name\":\"Notch\",\"type\":1,\"rights\":1}],\"flags\":[]}");
+        assertSmaller(TYPICAL);
+    }
+
+    @Test
+    public void tellsFormatsApart() throws Exception {
+        assertTrue(DataCodec.isCompact(DataCodec.encode(parse(TYPICAL))));
+        assertFalse(DataCodec.isCompact(TYPICAL));
+        assertFalse(DataCodec.isCompact(""));
+        assertFalse(DataCodec.isCompact(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedValues() throws Exception {
+        String encoded = DataCodec.encode(parse(TYPICAL));
+        DataCodec.decode(encoded.substring(0, encoded.length() - 4));
+    }
+
+    private void assertRoundTrip(String json) throws Exception {
+        JSONObject object = parse(json);
+        assertEquals(object, DataCodec.decode(DataCodec.encode(object)));
+    }
+
+    private void assertSmaller(String json) throws Exception {
+        JSONObject object = parse(json);
+        String encoded = DataCodec.encode(object);
+        assertTrue(encoded + " is not smaller than " + json, encoded.length() < object.toJSONString().length() * 3 / 4);
+    }
+
+    private JSONObject parse(String json) throws Exception {
+        return (JSONObject) new JSONParser().parse(json);
+    }
+
+}
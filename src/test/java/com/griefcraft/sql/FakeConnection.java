@@ -0,0 +1,329 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JDBC connection that does not connect to anything. Every statement that is executed is recorded and answered by
+ * {@link #execute(String, java.util.List)}, which tests override to return rows or to fail.
+ */
+public class FakeConnection {
+
+    /**
+     * A statement that was executed, with the parameters bound to it
+     */
+    public static class Execution {
+
+        private final String sql;
+
+        private final List<Object> parameters;
+
+        private Execution(String sql, List<Object> parameters) {
+            this.sql = sql;
+            this.parameters = parameters;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        /**
+         * @param index the index of the parameter, starting at 1 like in JDBC
+         * @return
+         */
+        public Object getParameter(int index) {
+            return parameters.get(index - 1);
+        }
+
+    }
+
+    /**
+     * Every statement that was executed, in order
+     */
+    private final List<Execution> executions = Collections.synchronizedList(new ArrayList<Execution>());
+
+    /**
+     * The connection handed to the code that is tested
+     */
+    private final Connection connection = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Connection.class }, new InvocationHandler() {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.equals("prepareStatement")) {
+                return createStatement((String) args[0]);
+            } else if (name.equals("createStatement")) {
+                return createStatement(null);
+            } else if (name.equals("getAutoCommit")) {
+                return true;
+            }
+
+            return defaultValue(method);
+        }
+    });
+
+    /**
+     * Answer a statement. By default queries return no rows and updates change one row.
+     *
+     * @param sql
+     * @param parameters the parameters bound to the statement, the first one at index 0
+     * @return the rows found by a query as maps of column names to values, or the amount of rows changed by an update
+     */
+    protected Object execute(String sql, List<Object> parameters) throws SQLException {
+        return sql.startsWith("SELECT") ? new ArrayList<Map<String, Object>>() : 1;
+    }
+
+    /**
+     * @return the connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the statements that were executed
+     *
+     * @param prefix the start of the sql of the statements
+     * @return
+     */
+    public List<Execution> getExecutions(String prefix) {
+        List<Execution> result = new ArrayList<Execution>();
+
+        synchronized (executions) {
+            for (Execution execution : executions) {
+                if (execution.sql.startsWith(prefix)) {
+                    result.add(execution);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Record a statement and answer it
+     *
+     * @param sql
+     * @param parameters
+     * @return
+     */
+    private Object record(String sql, Map<Integer, Object> parameters) throws SQLException {
+        List<Object> values = new ArrayList<Object>();
+
+        for (int index = 1; index <= parameters.size(); index++) {
+            values.add(parameters.get(index));
+        }
+
+        executions.add(new Execution(sql, values));
+        return execute(sql, values);
+    }
+
+    /**
+     * Create a statement
+     *
+     * @param preparedSql the sql of a prepared statement, or null for a plain statement
+     * @return
+     */
+    private Statement createStatement(final String preparedSql) {
+        final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+        final List<Map<Integer, Object>> batch = new ArrayList<Map<Integer, Object>>();
+        Class<?> type = preparedSql == null ? Statement.class : PreparedStatement.class;
+
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+
+                if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                    return null;
+                } else if (name.equals("clearParameters")) {
+                    parameters.clear();
+                } else if (name.equals("addBatch")) {
+                    batch.add(new HashMap<Integer, Object>(parameters));
+                } else if (name.equals("clearBatch")) {
+                    batch.clear();
+                } else if (name.equals("executeBatch")) {
+                    int[] updated = new int[batch.size()];
+
+                    try {
+                        for (int i = 0; i < updated.length; i++) {
+                            updated[i] = (Integer) record(preparedSql, batch.get(i));
+                        }
+                    } finally {
+                        batch.clear();
+                    }
+
+                    return updated;
+                } else if (name.equals("executeUpdate")) {
+                    return record(sql, parameters);
+                } else if (name.equals("executeQuery")) {
+                    return createResultSet(rows(record(sql, parameters)));
+                } else if (name.equals("execute")) {
+                    record(sql, parameters);
+                    return false;
+                } else if (name.equals("getGeneratedKeys")) {
+                    return createResultSet(new ArrayList<Map<String, Object>>());
+                }
+
+                return defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * Cast the answer to a query
+     *
+     * @param answer
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> rows(Object answer) {
+        return (List<Map<String, Object>>) answer;
+    }
+
+    /**
+     * Create a result set over rows
+     *
+     * @param rows
+     * @return
+     */
+    private ResultSet createResultSet(final List<Map<String, Object>> rows) {
+        return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { ResultSet.class }, new InvocationHandler() {
+            private int row = -1;
+
+            private Object last;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+
+                if (name.equals("next")) {
+                    return ++row < rows.size();
+                } else if (name.equals("wasNull")) {
+                    return last == null;
+                } else if (name.startsWith("get") && args != null && args.length == 1) {
+                    last = column(rows.get(row), args[0]);
+
+                    if (last == null) {
+                        return defaultValue(method);
+                    } else if (method.getReturnType() == String.class) {
+                        return last.toString();
+                    } else if (method.getReturnType() == int.class) {
+                        return ((Number) last).intValue();
+                    } else if (method.getReturnType() == long.class) {
+                        return ((Number) last).longValue();
+                    }
+
+                    return last;
+                }
+
+                return defaultValue(method);
+            }
+        });
+    }
+
+    /**
+     * Get the value of a column of a row
+     *
+     * @param row
+     * @param column the name or the index of the column, starting at 1
+     * @return
+     */
+    private Object column(Map<String, Object> row, Object column) {
+        if (column instanceof Integer) {
+            return new ArrayList<Object>(row.values()).get((Integer) column - 1);
+        }
+
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase((String) column)) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Create a row for {@link #execute(String, java.util.List)}
+     *
+     * @param columns the names and values of the columns, one after the other
+     * @return
+     */
+    public static Map<String, Object> row(Object... columns) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+
+        for (int i = 0; i < columns.length; i += 2) {
+            row.put((String) columns[i], columns[i + 1]);
+        }
+
+        return row;
+    }
+
+    /**
+     * The value returned by a method that is not faked
+     *
+     * @param method
+     * @return
+     */
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.sql;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.lwc.TestLWC;
+import com.griefcraft.model.Protection;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.griefcraft.sql.FakeConnection.row;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PhysDBTest {
+
+    private LWC lwc;
+
+    /**
+     * The data column of the protections, by id
+     */
+    private final Map<Integer, String> data = new TreeMap<Integer, String>();
+
+    /**
+     * Counts two chests for whoever is asked for, and changes the data of protection #3 before it can be converted
+     */
+    private final FakeConnection database = new FakeConnection() {
+        @Override
+        protected Object execute(String sql, List<Object> parameters) throws SQLException {
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+
+            if (sql.startsWith("SELECT blockId, COUNT(*)")) {
+                rows.add(row("blockId", 54, "count", 2));
+                return rows;
+            } else if (sql.startsWith("SELECT id, data")) {
+                for (Map.Entry<Integer, String> entry : data.entrySet()) {
+                    if (entry.getKey() > (Integer) parameters.get(0)) {
+                        rows.add(row("id", entry.getKey(), "data", entry.getValue()));
+                    }
+                }
+
+                return rows;
+            } else if (sql.startsWith("UPDATE") && sql.contains("SET data = ?")) {
+                int id = (Integer) parameters.get(1);
+
+                if (id == 3 || !data.get(id).equals(parameters.get(2))) {
+                    return 0;
+                }
+
+                data.put(id, (String) parameters.get(0));
+                return 1;
+            }
+
+            return super.execute(sql, parameters);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        TestLWC.stop(lwc);
+    }
+
+    @Test
+    public void countsIgnoreCaseOnMySQL() throws Exception {
+        start("cache", Database.Type.MySQL);
+
+        assertEquals(2, lwc.getPhysicalDatabase().getProtectionCount("Owner"));
+        lwc.getPhysicalDatabase().getProtectionCounts().increment("owner", 54);
+        assertEquals(3, lwc.getPhysicalDatabase().getProtectionCount("OWNER", 54));
+
+        // every spelling of the name shares the counts loaded the first time
+        assertEquals(1, database.getExecutions("SELECT blockId, COUNT(*)").size());
+    }
+
+    @Test
+    public void countsWaitForQueuedRemovals() throws Exception {
+        start("memory", Database.Type.SQLite);
+
+        Protection protection = new Protection();
+        protection.setId(1);
+        protection.setWorld("world");
+        protection.setOwner("owner");
+        protection.setBlockId(54);
+        protection.markClean();
+        lwc.getProtectionCache().add(protection);
+        protection.remove();
+
+        lwc.getPhysicalDatabase().getProtectionCount("owner");
+
+        // the removal reaches the database before the protections are counted
+        String prefix = lwc.getPhysicalDatabase().getPrefix();
+        List<FakeConnection.Execution> executions = database.getExecutions("");
+        int delete = -1;
+        int count = -1;
+
+        for (int i = 0; i < executions.size(); i++) {
+            String sql = executions.get(i).getSql();
+
+            if (sql.startsWith("DELETE FROM " + prefix + "protections")) {
+                delete = i;
+            } else if (sql.startsWith("SELECT blockId, COUNT(*)")) {
+                count = i;
+            }
+        }
+
+        assertTrue(delete != -1 && delete < count);
+        assertEquals(0, lwc.getDatabaseThread().removalSize());
+    }
+
+    @Test
+    public void convertsUnchangedData() throws Exception {
+        String json = "{\"rights\":[{\"name\":\"owner\",\"type\":1,\"rights\":1}],\"flags\":[]}";
+        String compact = DataCodec.encode((JSONObject) new JSONParser().parse(json));
+        data.put(1, json);
+        data.put(2, compact);
+        data.put(3, json);
+        data.put(4, "");
+        data.put(5, "{not json");
+
+        start("cache", Database.Type.SQLite, "compact");
+
+        // #3 was changed after it was read, #2 already is compact and #4 and #5 have nothing to convert
+        assertEquals(1, lwc.getPhysicalDatabase().convertProtectionData());
+        assertEquals(2, database.getExecutions("UPDATE").size());
+        assertEquals(compact, data.get(1));
+        assertEquals(json, data.get(3));
+        assertEquals("{not json", data.get(5));
+    }
+
+    @Test
+    public void convertsBackToJson() throws Exception {
+        String json = "{\"rights\":[{\"name\":\"owner\",\"type\":1,\"rights\":1}],\"flags\":[]}";
+        data.put(1, DataCodec.encode((JSONObject) new JSONParser().parse(json)));
+        data.put(2, json);
+
+        start("cache", Database.Type.SQLite, "json");
+
+        assertEquals(1, lwc.getPhysicalDatabase().convertProtectionData());
+        assertEquals(new JSONParser().parse(json), new JSONParser().parse(data.get(1)));
+        assertEquals(1, database.getExecutions("UPDATE").size());
+    }
+
+    /**
+     * Start LWC on the fake database
+     *
+     * @param storageMode
+     * @param type
+     */
+    private void start(String storageMode, Database.Type type) throws Exception {
+        start(storageMode, type, "json");
+    }
+
+    /**
+     * Start LWC on the fake database
+     *
+     * @param storageMode
+     * @param type
+     * @param dataFormat
+     */
+    private void start(String storageMode, Database.Type type, String dataFormat) throws Exception {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("core.storageMode", storageMode);
+        settings.put("database.dataFormat", dataFormat);
+        settings.put("core.protectionFilter", false);
+
+        lwc = TestLWC.create(settings);
+        TestLWC.start(lwc, new FakePhysDB(database, type));
+    }
+
+}
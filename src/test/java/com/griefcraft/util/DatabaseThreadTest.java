@@ -0,0 +1,121 @@
+/*
+ * Copyright 2011 Tyler Blair. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of
+ *       conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list
+ *       of conditions and the following disclaimer in the documentation and/or other materials
+ *       provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE AUTHOR OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and contributors and should not be interpreted as representing official policies,
+ * either expressed or implied, of anybody else.
+ */
+
+package com.griefcraft.util;
+
+import com.griefcraft.lwc.LWC;
+import com.griefcraft.lwc.TestLWC;
+import com.griefcraft.model.Protection;
+import com.griefcraft.sql.FakeConnection;
+import com.griefcraft.sql.FakePhysDB;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DatabaseThreadTest {
+
+    private LWC lwc;
+
+    /**
+     * Fails every update of the protection with this id
+     */
+    private final FakeConnection database = new FakeConnection() {
+        @Override
+        protected Object execute(String sql, List<Object> parameters) throws SQLException {
+            if (sql.startsWith("UPDATE") && Integer.valueOf(1).equals(parameters.get(parameters.size() - 1))) {
+                throw new SQLException("Data too long for column 'owner'");
+            }
+
+            return super.execute(sql, parameters);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("core.storageMode", "memory");
+        settings.put("core.protectionFilter", false);
+
+        lwc = TestLWC.create(settings);
+        TestLWC.start(lwc, new FakePhysDB(database));
+    }
+
+    @After
+    public void tearDown() {
+        TestLWC.stop(lwc);
+    }
+
+    @Test
+    public void removalSurvivesFailedRow() {
+        Protection failing = createProtection(1);
+        failing.setOwner("a name that is too long");
+        failing.save();
+
+        Protection removed = createProtection(2);
+        removed.remove();
+
+        lwc.getDatabaseThread().flushNow();
+
+        // the removal is written even though the save before it failed
+        List<FakeConnection.Execution> deletes = database.getExecutions("DELETE FROM " + lwc.getPhysicalDatabase().getPrefix() + "protections");
+        assertEquals(1, deletes.size());
+        assertEquals(2, deletes.get(0).getParameter(1));
+
+        // and the failed save is queued to be tried again
+        assertEquals(1, lwc.getDatabaseThread().size());
+        assertEquals(0, lwc.getDatabaseThread().removalSize());
+    }
+
+    /**
+     * Create a protection as if it was loaded from the database
+     *
+     * @param id
+     * @return
+     */
+    private Protection createProtection(int id) {
+        Protection protection = new Protection();
+        protection.setId(id);
+        protection.setWorld("world");
+        protection.setOwner("owner");
+        protection.setX(id);
+        protection.setY(64);
+        protection.setZ(0);
+        protection.markClean();
+
+        lwc.getProtectionCache().add(protection);
+        return protection;
+    }
+
+}